@@ -0,0 +1,27 @@
+package com.kitcode;
+
+/**
+ * The replaceAll chain {@link SnippetNormalizer} replaced, kept as the
+ * baseline of {@link SnippetNormalizerBenchmark}.
+ */
+final class LegacySnippetNormalizer {
+
+    private LegacySnippetNormalizer() {
+    }
+
+    static String normalize(String text, boolean aggressive) {
+        String normalized = text;
+        if (aggressive) {
+            for (String keyword : SnippetNormalizer.KEYWORDS) {
+                normalized = normalized.replaceAll("\\b" + keyword + "(?=[A-Za-z_])", keyword + " ");
+            }
+        }
+        normalized = normalized.replaceAll("(?<=[a-zA-Z_])\\(", " (");
+        normalized = normalized.replaceAll("\\)(?=[A-Za-z_])", ") ");
+        normalized = normalized.replaceAll("(?<=[a-zA-Z_])\\{", " {");
+        normalized = normalized.replaceAll("\\}(?=[A-Za-z_])", "} ");
+        normalized = normalized.replaceAll("(?<=[^\\s])([;])", "$1 ");
+        normalized = normalized.replaceAll("[\\t\\x0B\\f\\r ]+", " ");
+        return normalized;
+    }
+}
@@ -0,0 +1,74 @@
+package com.kitcode;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Single-pass normalizer against the replaceAll chain it replaced, on masked
+ * snippets of the shape found in MLCQ: glued modifiers and parentheses,
+ * literal placeholders and mixed whitespace. Run with "gradle jmh".
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnippetNormalizerBenchmark {
+
+    private static final String[] LINES = {
+            "publicstaticint count(String s){returns.length();}",
+            "if(x==null){throw new IllegalArgumentException(__STR0__);}",
+            "\tfor(int i=0;i<n;i++){sum+=values[i];}",
+            "privatefinalMap<String, Integer> counts=new HashMap<>();",
+            "String sql=__STR1__+table+__STR2__+id;",
+            "  @Override  public  String toString() {  return name ; }",
+            "synchronizedvoid add(Object o){items.add(o);}",
+            "}else{log.debug(__STR3__,value);}",
+    };
+
+    @Param({ "false", "true" })
+    public boolean aggressive;
+
+    @Param({ "10", "200" })
+    public int lines;
+
+    private String snippet;
+    private SnippetNormalizer normalizer;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            sb.append(LINES[random.nextInt(LINES.length)]).append('\n');
+        }
+        snippet = sb.toString();
+        normalizer = new SnippetNormalizer();
+        if (!LegacySnippetNormalizer.normalize(snippet, aggressive).equals(normalizer.normalize(snippet, aggressive))) {
+            throw new IllegalStateException("Normalizers disagree");
+        }
+    }
+
+    @Benchmark
+    public String legacy() {
+        return LegacySnippetNormalizer.normalize(snippet, aggressive);
+    }
+
+    @Benchmark
+    public String singlePass() {
+        return normalizer.normalize(snippet, aggressive);
+    }
+}
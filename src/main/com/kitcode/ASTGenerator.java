@@ -3,34 +3,40 @@ package com.kitcode;
 import antlr.Java8Lexer;
 import antlr.Java8Parser;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-
-import java.util.ArrayList;
+import java.io.OutputStream;
 
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
 
 import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.BailErrorStrategy;
 import org.antlr.v4.runtime.BaseErrorListener;
 import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.ParserRuleContext;
 import org.antlr.v4.runtime.RecognitionException;
 import org.antlr.v4.runtime.Recognizer;
 import org.antlr.v4.runtime.RuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
 import org.antlr.v4.runtime.tree.ParseTree;
 
 public class ASTGenerator {
 
-    static ArrayList<String> LineNum;
-    static ArrayList<String> Type;
-    static ArrayList<String> Content;
-    static ArrayList<String> TypeName;
-    static ArrayList<String> StartLine;
-    static ArrayList<String> EndLine;
+    // Pooled rather than thread-local: run-level sinks write on a fresh
+    // virtual thread per file, where a thread-local writer would never be
+    // reused.
+    private static final WriterPool<DotWriter> DOT_WRITERS = new WriterPool<DotWriter>(DotWriter::new);
+    private static final WriterPool<BinaryAstWriter> BINARY_WRITERS = new WriterPool<BinaryAstWriter>(BinaryAstWriter::new);
+    private static final WriterPool<NdjsonWriter> NDJSON_WRITERS = new WriterPool<NdjsonWriter>(NdjsonWriter::new);
 
     private static String readFile(String fileName) throws IOException {
         File file = new File(fileName);
@@ -39,6 +45,9 @@ public class ASTGenerator {
     }
 
     public static void main(String args[]) throws IOException{
+        CommandLine cl = CommandLine.parse(args);
+        GraphFormat format = GraphFormat.fromOption(cl.option("format", "dot"));
+
         File javaDir = new File("resource/java");
         File[] javaFiles = javaDir.listFiles((dir, name) -> name.endsWith(".java"));
         
@@ -47,130 +56,254 @@ public class ASTGenerator {
             return;
         }
         
-        for (File javaFile : javaFiles) {
-            processJavaFile(javaFile);
-        }
-    }
-
-    private static void generateAST(RuleContext ctx, boolean verbose, int indentation) {
-        boolean toBeIgnored = !verbose && ctx.getChildCount() == 1 && ctx.getChild(0) instanceof ParserRuleContext;
-
-        if (!toBeIgnored) {
-            String ruleName = Java8Parser.ruleNames[ctx.getRuleIndex()];
-            int ruleIndex = ctx.getRuleIndex();
-            
-            // Get line numbers from the context
-            int startLine = 1;
-            int endLine = 1;
-            if (ctx instanceof ParserRuleContext) {
-                ParserRuleContext parserCtx = (ParserRuleContext) ctx;
-                startLine = parserCtx.getStart() != null ? parserCtx.getStart().getLine() : 1;
-                endLine = parserCtx.getStop() != null ? parserCtx.getStop().getLine() : startLine;
-            }
-            
-            LineNum.add(Integer.toString(indentation));
-            Type.add(Integer.toString(ruleIndex));
-            TypeName.add(ruleName);
-            Content.add(ctx.getText());
-            StartLine.add(Integer.toString(startLine));
-            EndLine.add(Integer.toString(endLine));
-        }
-        for (int i = 0; i < ctx.getChildCount(); i++) {
-            ParseTree element = ctx.getChild(i);
-            if (element instanceof RuleContext) {
-                generateAST((RuleContext) element, verbose, indentation + (toBeIgnored ? 0 : 1));
+        try (GraphSink sink = GraphSink.open(Paths.get("graphs"), format, false, false, 0, null)) {
+            for (File javaFile : javaFiles) {
+                processJavaFile(javaFile, format, sink);
             }
         }
     }
-    
-    private static void processJavaFile(File javaFile) throws IOException {
-        LineNum = new ArrayList<String>();
-        Type = new ArrayList<String>();
-        Content = new ArrayList<String>();
-        TypeName = new ArrayList<String>();
-        StartLine = new ArrayList<String>();
-        EndLine = new ArrayList<String>();
-        
+
+    private static void processJavaFile(File javaFile, GraphFormat format, GraphSink sink) throws IOException {
         String inputString = readFile(javaFile.getPath());
-        ANTLRInputStream input = new ANTLRInputStream(inputString);
-        Java8Lexer lexer = new Java8Lexer(input);
-        CommonTokenStream tokens = new CommonTokenStream(lexer);
-        Java8Parser parser = new Java8Parser(tokens);
-        
-        // Add error listener to detect parsing errors
-        parser.removeErrorListeners();
-        parser.addErrorListener(new BaseErrorListener() {
-            @Override
-            public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line, int charPositionInLine, String msg, RecognitionException e) {
-                System.err.println("Parsing error in " + javaFile.getName() + " at line " + line + ":" + charPositionInLine + " - " + msg);
-            }
-        });
-        
-        ParserRuleContext ctx = parser.compilationUnit();
-        
+        NodeTable nodes = parseNodes(inputString, javaFile.getName());
+
         // Check if parsing was successful
-        if (parser.getNumberOfSyntaxErrors() > 0) {
+        if (nodes == null) {
             System.err.println("Skipping " + javaFile.getName() + " due to syntax errors");
             return;
         }
 
-        generateAST(ctx, false, 0);
+        if (sink != null) {
+            sink.add(javaFile.getName(), nodes, null);
+            System.out.println("Generated AST for " + javaFile.getName());
+            return;
+        }
 
         File graphsDir = new File("graphs");
         if (!graphsDir.exists()) {
             graphsDir.mkdirs();
         }
         
-        String fileName = javaFile.getName().replace(".java", ".dot");
+        String fileName = javaFile.getName().replace(".java", format.extension());
         String outputPath = "graphs/" + fileName;
         
-        try (FileWriter writer = new FileWriter(outputPath)) {
-            writer.write("digraph G {\n");
-            writeDOT(writer, null);
-            writer.write("}\n");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(Paths.get(outputPath)))) {
+            writeGraph(javaFile.getName(), nodes, out, null, format, false, false);
         }
         
         System.out.println("Generated AST for " + javaFile.getName() + " -> " + fileName);
     }
 
     public static boolean generateDotFromString(String inputString, String outputPath, String header) throws IOException {
-        LineNum = new ArrayList<String>();
-        Type = new ArrayList<String>();
-        Content = new ArrayList<String>();
-        TypeName = new ArrayList<String>();
-        StartLine = new ArrayList<String>();
-        EndLine = new ArrayList<String>();
+        return generateGraphFromString(inputString, outputPath, header, GraphFormat.DOT, false);
+    }
 
-        ANTLRInputStream input = new ANTLRInputStream(inputString);
-        Java8Lexer lexer = new Java8Lexer(input);
-        CommonTokenStream tokens = new CommonTokenStream(lexer);
-        Java8Parser parser = new Java8Parser(tokens);
+    /**
+     * Parses the input and writes its AST to outputPath in the given format.
+     * includeContent only applies to the binary format. Returns false and
+     * writes nothing when the input has syntax errors.
+     */
+    public static boolean generateGraphFromString(String inputString, String outputPath, String header, GraphFormat format, boolean includeContent) throws IOException {
+        NodeTable nodes = parseNodes(inputString, null);
+        if (nodes == null) {
+            return false;
+        }
 
-        parser.removeErrorListeners();
-        parser.addErrorListener(new BaseErrorListener() {
-            @Override
-            public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line, int charPositionInLine, String msg, RecognitionException e) {
-                System.err.println("Parsing error at line " + line + ":" + charPositionInLine + " - " + msg);
-            }
-        });
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(Paths.get(outputPath)))) {
+            writeGraph(Paths.get(outputPath).getFileName().toString(), nodes, out, header, format, includeContent, false);
+        }
+        return true;
+    }
 
-        ParserRuleContext ctx = parser.compilationUnit();
-        if (parser.getNumberOfSyntaxErrors() > 0) {
-            return false;
+    /**
+     * Writes one graph in the given format. With a shared vocabulary, DOT
+     * nodes omit typeName; the other formats only ever store rule indices.
+     */
+    static void writeGraph(String sourceName, NodeTable nodes, OutputStream out, String header, GraphFormat format, boolean includeContent, boolean sharedVocabulary) throws IOException {
+        switch (format) {
+            case BINARY: {
+                BinaryAstWriter writer = BINARY_WRITERS.acquire();
+                try {
+                    writer.write(out, nodes, header, includeContent);
+                } finally {
+                    BINARY_WRITERS.release(writer);
+                }
+                break;
+            }
+            case NDJSON: {
+                NdjsonWriter writer = NDJSON_WRITERS.acquire();
+                try {
+                    writer.write(out, sourceName, nodes, header);
+                } finally {
+                    NDJSON_WRITERS.release(writer);
+                }
+                break;
+            }
+            case NPY:
+            case NPZ:
+                throw new IllegalArgumentException("Format " + format + " can only be written for a whole run");
+            default: {
+                DotWriter writer = DOT_WRITERS.acquire();
+                try {
+                    writer.write(out, nodes, header, !sharedVocabulary);
+                } finally {
+                    DOT_WRITERS.release(writer);
+                }
+                break;
+            }
         }
+    }
 
-        generateAST(ctx, false, 0);
+    /**
+     * Free list of graph writers and their buffers. It never holds more
+     * writers than were in use at the same time.
+     */
+    private static final class WriterPool<W> {
 
-        try (FileWriter writer = new FileWriter(outputPath)) {
-            writer.write("digraph G {\n");
-            writeDOT(writer, header);
-            writer.write("}\n");
+        private final ConcurrentLinkedQueue<W> idle = new ConcurrentLinkedQueue<W>();
+        private final Supplier<W> factory;
+
+        WriterPool(Supplier<W> factory) {
+            this.factory = factory;
         }
 
-        return true;
+        W acquire() {
+            W writer = idle.poll();
+            return writer != null ? writer : factory.get();
+        }
+
+        void release(W writer) {
+            idle.offer(writer);
+        }
     }
 
     public static boolean parseOnly(String inputString, String sourceName) {
+        return parseOnly(inputString, sourceName, null);
+    }
+
+    /** Like {@link #parseOnly(String, String)}, collecting error messages into errors. */
+    public static boolean parseOnly(String inputString, String sourceName, List<String> errors) {
+        Java8Parser parser = newParser(inputString, sourceName, errors);
+        parser.compilationUnit();
+        return parser.getNumberOfSyntaxErrors() == 0;
+    }
+
+    /**
+     * Silent yes/no syntax check for trial parses. Runs SLL prediction with a
+     * bail-out strategy first, which is cheap and stops at the first error,
+     * and only when that fails repeats the parse with full LL, since SLL can
+     * reject input that LL accepts. Agrees with {@link #parseOnly(String, String)}.
+     */
+    static boolean parses(String inputString) {
+        return parses(inputString, true);
+    }
+
+    /**
+     * SLL half of {@link #parses(String)}: never accepts invalid input, but
+     * can reject valid input. Costs a fraction of the LL check on input that
+     * really is invalid.
+     */
+    static boolean parsesSll(String inputString) {
+        return parses(inputString, false);
+    }
+
+    private static boolean parses(String inputString, boolean confirmWithLl) {
+        return trialParse(silentTokens(inputString), confirmWithLl) != null;
+    }
+
+    /**
+     * Trial parse that keeps what it parsed: the node table of an accepted
+     * input, or null. A parse that succeeds under SLL yields the tree LL
+     * would, so the table is the one {@link #parseNodes(String, String)}
+     * builds, without parsing a second time.
+     */
+    static NodeTable trialParseNodes(String inputString, boolean confirmWithLl) {
+        CommonTokenStream tokens = silentTokens(inputString);
+        ParserRuleContext ctx = trialParse(tokens, confirmWithLl);
+        if (ctx == null) {
+            return null;
+        }
+        NodeTable nodes = new NodeTable(inputString, tokens.getTokens());
+        generateAST(ctx, false, -1, nodes);
+        return nodes;
+    }
+
+    private static CommonTokenStream silentTokens(String inputString) {
+        Java8Lexer lexer = new Java8Lexer(new ANTLRInputStream(inputString));
+        lexer.removeErrorListeners();
+        return new CommonTokenStream(lexer);
+    }
+
+    private static ParserRuleContext trialParse(CommonTokenStream tokens, boolean confirmWithLl) {
+        Java8Parser parser = new Java8Parser(tokens);
+        parser.removeErrorListeners();
+        parser.setErrorHandler(new BailErrorStrategy());
+        parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+        try {
+            return parser.compilationUnit();
+        } catch (ParseCancellationException e) {
+            // Possibly an SLL false alarm; decide with full LL.
+        }
+        if (!confirmWithLl) {
+            return null;
+        }
+        tokens.seek(0);
+        parser.reset();
+        parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+        try {
+            return parser.compilationUnit();
+        } catch (ParseCancellationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses the input and returns its AST as a columnar node table, or null
+     * when the input has syntax errors.
+     */
+    public static NodeTable parseNodes(String inputString, String sourceName) {
+        return parseNodes(inputString, sourceName, null);
+    }
+
+    /**
+     * Same as {@link #parseNodes(String, String)}, but collects syntax error
+     * messages into errors instead of printing them, so concurrent callers
+     * can report them in a deterministic order. Safe to call from several
+     * threads at once.
+     */
+    public static NodeTable parseNodes(String inputString, String sourceName, List<String> errors) {
+        return parseNodes(inputString, sourceName, errors, null);
+    }
+
+    /**
+     * Same as {@link #parseNodes(String, String, List)}, charging lexing,
+     * parsing and AST extraction to the timer when one is given. Lexing is
+     * timed separately by filling the token stream before parsing starts.
+     */
+    static NodeTable parseNodes(String inputString, String sourceName, List<String> errors, RunMetrics.Timer timer) {
+        Java8Parser parser = newParser(inputString, sourceName, errors);
+        CommonTokenStream tokens = (CommonTokenStream) parser.getInputStream();
+        if (timer != null) {
+            tokens.fill();
+            timer.lap(RunMetrics.Stage.LEX);
+            timer.tokens(tokens.size());
+        }
+        ParserRuleContext ctx = parser.compilationUnit();
+        if (timer != null) {
+            timer.lap(RunMetrics.Stage.PARSE);
+        }
+        if (parser.getNumberOfSyntaxErrors() > 0) {
+            return null;
+        }
+        NodeTable nodes = new NodeTable(inputString, tokens.getTokens());
+        generateAST(ctx, false, -1, nodes);
+        if (timer != null) {
+            timer.lap(RunMetrics.Stage.EXTRACT);
+        }
+        return nodes;
+    }
+
+    private static Java8Parser newParser(String inputString, String sourceName, List<String> errors) {
         ANTLRInputStream input = new ANTLRInputStream(inputString);
         Java8Lexer lexer = new Java8Lexer(input);
         CommonTokenStream tokens = new CommonTokenStream(lexer);
@@ -180,63 +313,58 @@ public class ASTGenerator {
         parser.addErrorListener(new BaseErrorListener() {
             @Override
             public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line, int charPositionInLine, String msg, RecognitionException e) {
+                String message;
                 if (sourceName != null && !sourceName.isEmpty()) {
-                    System.err.println("Parsing error in " + sourceName + " at line " + line + ":" + charPositionInLine + " - " + msg);
+                    message = "Parsing error in " + sourceName + " at line " + line + ":" + charPositionInLine + " - " + msg;
+                } else {
+                    message = "Parsing error at line " + line + ":" + charPositionInLine + " - " + msg;
+                }
+                if (errors != null) {
+                    errors.add(message);
                 } else {
-                    System.err.println("Parsing error at line " + line + ":" + charPositionInLine + " - " + msg);
+                    System.err.println(message);
                 }
             }
         });
-
-        parser.compilationUnit();
-        return parser.getNumberOfSyntaxErrors() == 0;
+        return parser;
     }
-    
-    private static void writeDOT(FileWriter writer, String header) throws IOException {
-        if (header != null && !header.isEmpty()) {
-            writer.write("graph [comment=\"" + header + "\"]\n");
-        }
-        // Store original indentation levels before writeLabel modifies LineNum
-        ArrayList<String> originalIndentations = new ArrayList<String>(LineNum);
-        
-        writeLabel(writer);
-        
-        // Generate edges based on the tree structure
-        for(int i = 1; i < LineNum.size(); i++) {
-            int currentLevel = Integer.parseInt(originalIndentations.get(i));
-            
-            // Find parent (previous node with level currentLevel-1)
-            for(int j = i - 1; j >= 0; j--) {
-                int parentLevel = Integer.parseInt(originalIndentations.get(j));
-                if(parentLevel == currentLevel - 1) {
-                    writer.write("\"" + LineNum.get(j) + "\" -> \"" + LineNum.get(i) + "\"\n");
-                    break;
+
+    private static void generateAST(RuleContext ctx, boolean verbose, int parentIndex, NodeTable nodes) {
+        boolean toBeIgnored = !verbose && ctx.getChildCount() == 1 && ctx.getChild(0) instanceof ParserRuleContext;
+
+        int index = parentIndex;
+        if (!toBeIgnored) {
+            int startLine = 1;
+            int endLine = 1;
+            int startOffset = 0;
+            int endOffset = 0;
+            int startToken = 0;
+            int stopToken = -1;
+            if (ctx instanceof ParserRuleContext) {
+                ParserRuleContext parserCtx = (ParserRuleContext) ctx;
+                Token start = parserCtx.getStart();
+                Token stop = parserCtx.getStop();
+                startLine = start != null ? start.getLine() : 1;
+                endLine = stop != null ? stop.getLine() : startLine;
+                if (start != null) {
+                    startOffset = start.getStartIndex();
+                    endOffset = startOffset;
+                    startToken = start.getTokenIndex();
+                    if (stop != null && stop.getTokenIndex() >= startToken) {
+                        endOffset = stop.getStopIndex() + 1;
+                        stopToken = stop.getTokenIndex();
+                    } else {
+                        stopToken = startToken - 1;
+                    }
                 }
             }
+            index = nodes.add(ctx.getRuleIndex(), parentIndex, startLine, endLine, startOffset, endOffset, startToken, stopToken);
+        }
+        for (int i = 0; i < ctx.getChildCount(); i++) {
+            ParseTree element = ctx.getChild(i);
+            if (element instanceof RuleContext) {
+                generateAST((RuleContext) element, verbose, index, nodes);
+            }
         }
     }
-    
-    private static void writeLabel(FileWriter writer) throws IOException {
-        for(int i = 0; i < LineNum.size(); i++) {
-            String escapedContent = Content.get(i).replace("\\", "\\\\")
-                                                  .replace("\"", "\\\"")
-                                                  .replace("\n", "\\n")
-                                                  .replace("\r", "\\r")
-                                                  .replace("\t", "\\t");
-            
-            // Generate a unique node ID using object hash-like approach
-            String nodeId = Integer.toString(Math.abs((escapedContent + i).hashCode()));
-            
-            writer.write("\"" + nodeId + "\" [ label=\"" + escapedContent + "\" ");
-            writer.write("type=" + Type.get(i) + " ");
-            writer.write("typeName=" + TypeName.get(i) + " ");
-            writer.write("startLineNumber=" + StartLine.get(i) + " ");
-            writer.write("endLineNumber=" + EndLine.get(i) + " ");
-            writer.write("]\n");
-            
-            // Store the nodeId for edge generation
-            LineNum.set(i, nodeId);
-        }
-    }
-    
 }
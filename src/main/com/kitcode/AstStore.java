@@ -0,0 +1,378 @@
+package com.kitcode;
+
+import antlr.Java8Parser;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Read-only view over the ASTs of many files, kept in memory-mapped column
+ * files so that node data lives outside the Java heap. A store is a directory
+ * holding one big-endian int32 file per node column, a graph index and two
+ * string tables. Node indices are global across the store; parent indices
+ * point into the same global space and roots have parent -1.
+ *
+ * Stores are written once with {@link #create(Path)} and can be reopened with
+ * {@link #open(Path)} by later processes without reparsing any source.
+ */
+public final class AstStore implements Closeable {
+
+    private static final int MAGIC = 0x41535453;
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 16;
+    /**
+     * Most nodes, and most graphs, a store can hold. Every column is mapped
+     * whole, one mapping is limited to 2 GB, and the graph index has one
+     * entry more than there are graphs.
+     */
+    static final int MAX_NODES = (Integer.MAX_VALUE - Integer.BYTES) / Integer.BYTES;
+
+    private static final String META_FILE = "store.meta";
+    private static final String GRAPHS_FILE = "graphs.i32";
+    private static final String NAMES_FILE = "names";
+    private static final String HEADERS_FILE = "headers";
+    private static final String[] NODE_COLUMNS = {
+            "rule", "parent", "start_line", "end_line", "start_offset", "end_offset"
+    };
+
+    private static final int RULE = 0;
+    private static final int PARENT = 1;
+    private static final int START_LINE = 2;
+    private static final int END_LINE = 3;
+    private static final int START_OFFSET = 4;
+    private static final int END_OFFSET = 5;
+
+    private final int graphCount;
+    private final int nodeCount;
+    private final IntBuffer graphs;
+    private final IntBuffer[] columns;
+    private final StringTable names;
+    private final StringTable headers;
+    private Map<String, Integer> graphsByName;
+
+    private AstStore(int graphCount, int nodeCount, IntBuffer graphs, IntBuffer[] columns, StringTable names, StringTable headers) {
+        this.graphCount = graphCount;
+        this.nodeCount = nodeCount;
+        this.graphs = graphs;
+        this.columns = columns;
+        this.names = names;
+        this.headers = headers;
+    }
+
+    public static AstStore open(Path dir) throws IOException {
+        Path metaFile = dir.resolve(META_FILE);
+        if (!Files.exists(metaFile)) {
+            throw new IOException("Not a complete AST store: " + dir);
+        }
+        int ruleCount;
+        int graphCount;
+        int nodeCount;
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(metaFile))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not an AST store: " + dir);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported AST store version " + version + " in " + dir);
+            }
+            ruleCount = in.readInt();
+            graphCount = in.readInt();
+            nodeCount = in.readInt();
+        }
+        if (ruleCount != Java8Parser.ruleNames.length) {
+            throw new IOException("AST store " + dir + " was built with a different grammar ("
+                    + ruleCount + " rules, expected " + Java8Parser.ruleNames.length + ")");
+        }
+
+        IntBuffer graphs = mapInts(dir.resolve(GRAPHS_FILE), graphCount + 1);
+        IntBuffer[] columns = new IntBuffer[NODE_COLUMNS.length];
+        for (int i = 0; i < NODE_COLUMNS.length; i++) {
+            columns[i] = mapInts(dir.resolve(NODE_COLUMNS[i] + ".i32"), nodeCount);
+        }
+        StringTable names = StringTable.map(dir, NAMES_FILE, graphCount);
+        StringTable headers = StringTable.map(dir, HEADERS_FILE, graphCount);
+        return new AstStore(graphCount, nodeCount, graphs, columns, names, headers);
+    }
+
+    public static Writer create(Path dir) throws IOException {
+        return new Writer(dir);
+    }
+
+    public int graphCount() {
+        return graphCount;
+    }
+
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    public int firstNode(int graph) {
+        return graphs.get(graph);
+    }
+
+    public int nodeCount(int graph) {
+        return graphs.get(graph + 1) - graphs.get(graph);
+    }
+
+    public String sourceName(int graph) {
+        return names.get(graph);
+    }
+
+    public String header(int graph) {
+        String header = headers.get(graph);
+        return header.isEmpty() ? null : header;
+    }
+
+    /** Returns the graph with the given source name, or -1 if there is none. */
+    public synchronized int findGraph(String sourceName) {
+        if (graphsByName == null) {
+            graphsByName = new HashMap<String, Integer>(graphCount * 2);
+            for (int i = 0; i < graphCount; i++) {
+                graphsByName.put(names.get(i), i);
+            }
+        }
+        Integer graph = graphsByName.get(sourceName);
+        return graph != null ? graph : -1;
+    }
+
+    /** Returns the graph that contains the given global node index. */
+    public int graphOf(int node) {
+        int low = 0;
+        int high = graphCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (graphs.get(mid + 1) <= node) {
+                low = mid + 1;
+            } else if (graphs.get(mid) > node) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        throw new IndexOutOfBoundsException("Node " + node + " is outside the store");
+    }
+
+    public int rule(int node) {
+        return columns[RULE].get(node);
+    }
+
+    public String ruleName(int node) {
+        return Java8Parser.ruleNames[rule(node)];
+    }
+
+    public int parent(int node) {
+        return columns[PARENT].get(node);
+    }
+
+    public int startLine(int node) {
+        return columns[START_LINE].get(node);
+    }
+
+    public int endLine(int node) {
+        return columns[END_LINE].get(node);
+    }
+
+    public int startOffset(int node) {
+        return columns[START_OFFSET].get(node);
+    }
+
+    public int endOffset(int node) {
+        return columns[END_OFFSET].get(node);
+    }
+
+    @Override
+    public void close() {
+        // Mapped buffers are released by the garbage collector; nothing to do here.
+    }
+
+    private static IntBuffer mapInts(Path file, int count) throws IOException {
+        return map(file, (long) count * Integer.BYTES).asIntBuffer();
+    }
+
+    private static ByteBuffer map(Path file, long bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < bytes) {
+                throw new IOException("Truncated AST store file: " + file);
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, bytes);
+        }
+    }
+
+    private static final class StringTable {
+        private final IntBuffer offsets;
+        private final ByteBuffer data;
+
+        private StringTable(IntBuffer offsets, ByteBuffer data) {
+            this.offsets = offsets;
+            this.data = data;
+        }
+
+        static StringTable map(Path dir, String name, int count) throws IOException {
+            IntBuffer offsets = mapInts(dir.resolve(name + ".i32"), count + 1);
+            ByteBuffer data = AstStore.map(dir.resolve(name + ".utf8"), offsets.get(count));
+            return new StringTable(offsets, data);
+        }
+
+        String get(int index) {
+            int start = offsets.get(index);
+            byte[] bytes = new byte[offsets.get(index + 1) - start];
+            data.duplicate().position(start).get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Appends graphs to a new store. The store only becomes readable once the
+     * writer is closed, so an interrupted run never leaves a store that opens.
+     * Neither does an add that failed part-way: later adds are refused, and
+     * close releases the files without publishing them and throws.
+     */
+    public static final class Writer implements Closeable {
+        private final Path dir;
+        private final DataOutputStream graphs;
+        private final DataOutputStream[] columns = new DataOutputStream[NODE_COLUMNS.length];
+        private final StringTableWriter names;
+        private final StringTableWriter headers;
+        private int graphCount;
+        private int nodeCount;
+        private boolean failed;
+
+        private Writer(Path dir) throws IOException {
+            this.dir = dir;
+            Files.createDirectories(dir);
+            Files.deleteIfExists(dir.resolve(META_FILE));
+            graphs = openColumn(dir.resolve(GRAPHS_FILE));
+            for (int i = 0; i < NODE_COLUMNS.length; i++) {
+                columns[i] = openColumn(dir.resolve(NODE_COLUMNS[i] + ".i32"));
+            }
+            names = new StringTableWriter(dir, NAMES_FILE);
+            headers = new StringTableWriter(dir, HEADERS_FILE);
+        }
+
+        /** Appends one file's nodes and returns the graph index assigned to it. */
+        public int add(String sourceName, String header, NodeTable nodes) throws IOException {
+            if (failed) {
+                throw new IOException("An earlier add to the AST store failed: " + dir);
+            }
+            if ((long) nodeCount + nodes.size() > MAX_NODES || graphCount >= MAX_NODES) {
+                throw new IOException("AST store is full: " + dir);
+            }
+            try {
+                graphs.writeInt(nodeCount);
+                for (int i = 0; i < nodes.size(); i++) {
+                    int parent = nodes.parent(i);
+                    columns[RULE].writeInt(nodes.rule(i));
+                    columns[PARENT].writeInt(parent < 0 ? -1 : nodeCount + parent);
+                    columns[START_LINE].writeInt(nodes.startLine(i));
+                    columns[END_LINE].writeInt(nodes.endLine(i));
+                    columns[START_OFFSET].writeInt(nodes.startOffset(i));
+                    columns[END_OFFSET].writeInt(nodes.endOffset(i));
+                }
+                names.add(sourceName);
+                headers.add(header == null ? "" : header);
+            } catch (IOException | RuntimeException e) {
+                failed = true;
+                throw e;
+            }
+            nodeCount += nodes.size();
+            return graphCount++;
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOException error = null;
+            try {
+                graphs.writeInt(nodeCount);
+            } catch (IOException e) {
+                error = e;
+            }
+            error = closeAll(error, graphs);
+            error = closeAll(error, columns);
+            error = closeAll(error, names, headers);
+            if (error != null) {
+                throw error;
+            }
+            if (failed) {
+                throw new IOException("AST store was not published because an add failed: " + dir);
+            }
+
+            Path tmp = dir.resolve(META_FILE + ".tmp");
+            try (DataOutputStream meta = new DataOutputStream(Files.newOutputStream(tmp))) {
+                meta.writeInt(MAGIC);
+                meta.writeInt(VERSION);
+                meta.writeInt(Java8Parser.ruleNames.length);
+                meta.writeInt(graphCount);
+                meta.writeInt(nodeCount);
+            }
+            Files.move(tmp, dir.resolve(META_FILE), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        private static DataOutputStream openColumn(Path file) throws IOException {
+            return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE));
+        }
+    }
+
+    private static final class StringTableWriter implements Closeable {
+        private final DataOutputStream offsets;
+        private final BufferedOutputStream data;
+        private long size;
+
+        StringTableWriter(Path dir, String name) throws IOException {
+            offsets = Writer.openColumn(dir.resolve(name + ".i32"));
+            data = new BufferedOutputStream(Files.newOutputStream(dir.resolve(name + ".utf8")), BUFFER_SIZE);
+        }
+
+        void add(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (size + bytes.length > Integer.MAX_VALUE) {
+                throw new IOException("AST store string table is full");
+            }
+            offsets.writeInt((int) size);
+            data.write(bytes);
+            size += bytes.length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOException error = null;
+            try {
+                offsets.writeInt((int) size);
+            } catch (IOException e) {
+                error = e;
+            }
+            error = closeAll(error, offsets, data);
+            if (error != null) {
+                throw error;
+            }
+        }
+    }
+
+    /** Closes every stream even when one fails; returns the first error with the rest suppressed. */
+    private static IOException closeAll(IOException error, Closeable... streams) {
+        for (Closeable stream : streams) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                } else {
+                    error.addSuppressed(e);
+                }
+            }
+        }
+        return error;
+    }
+}
@@ -0,0 +1,232 @@
+package com.kitcode;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the binary AST format written by {@link BinaryAstWriter}. The file is
+ * memory-mapped and nodes are visited in pre-order with a cursor:
+ *
+ * <pre>
+ * BinaryAstReader reader = BinaryAstReader.open(path);
+ * while (reader.next()) {
+ *     int parent = reader.parent();
+ *     String rule = reader.ruleName();
+ * }
+ * </pre>
+ *
+ * Advancing the cursor and reading its fields allocates nothing; only
+ * {@link #content()} decodes text. Instances are not thread-safe.
+ */
+public final class BinaryAstReader {
+
+    private static final int PARENT = 0;
+    private static final int RULE = 1;
+    private static final int START_LINE = 2;
+    private static final int LINE_SPAN = 3;
+    private static final int START_OFFSET = 4;
+    private static final int LENGTH = 5;
+
+    private final ByteBuffer data;
+    private final int flags;
+    private final String header;
+    private final int[] ruleIndices;
+    private final String[] ruleNames;
+    private final int nodeCount;
+    private final int[] columnStarts = new int[6];
+    private final int contentStart;
+    private final int contentLength;
+
+    private final int[] positions = new int[6];
+    private int position;
+    private int index;
+    private int parent;
+    private int rule;
+    private int startLine;
+    private int endLine;
+    private int startOffset;
+    private int endOffset;
+    private String content;
+
+    private BinaryAstReader(ByteBuffer data) throws IOException {
+        this.data = data;
+        this.position = data.position();
+        for (int i = 0; i < BinaryAstWriter.MAGIC.length; i++) {
+            if (data.get(position++) != BinaryAstWriter.MAGIC[i]) {
+                throw new IOException("Not a binary AST file");
+            }
+        }
+        int version = readVarint();
+        if (version != BinaryAstWriter.VERSION) {
+            throw new IOException("Unsupported binary AST version " + version);
+        }
+        flags = readVarint();
+        String rawHeader = readString();
+        header = rawHeader.isEmpty() ? null : rawHeader;
+
+        int ruleCount = readVarint();
+        ruleIndices = new int[ruleCount];
+        ruleNames = new String[ruleCount];
+        for (int r = 0; r < ruleCount; r++) {
+            ruleIndices[r] = readVarint();
+            ruleNames[r] = readString();
+        }
+
+        nodeCount = readVarint();
+        int columnCount = hasContent() ? 6 : 4;
+        int[] sizes = new int[columnCount];
+        for (int c = 0; c < columnCount; c++) {
+            sizes[c] = readVarint();
+        }
+        contentLength = hasContent() ? readVarint() : 0;
+        int start = position;
+        for (int c = 0; c < columnCount; c++) {
+            columnStarts[c] = start;
+            start += sizes[c];
+        }
+        contentStart = start;
+        if (contentStart + contentLength > data.limit()) {
+            throw new IOException("Truncated binary AST file");
+        }
+        reset();
+    }
+
+    public static BinaryAstReader open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new BinaryAstReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /** Reads a graph that starts at the buffer's current position. */
+    public static BinaryAstReader wrap(ByteBuffer buffer) throws IOException {
+        return new BinaryAstReader(buffer);
+    }
+
+    public String header() {
+        return header;
+    }
+
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    public boolean hasContent() {
+        return (flags & BinaryAstWriter.FLAG_CONTENT) != 0;
+    }
+
+    /** Moves the cursor back before the first node. */
+    public void reset() {
+        System.arraycopy(columnStarts, 0, positions, 0, positions.length);
+        index = -1;
+        startLine = 0;
+        startOffset = 0;
+    }
+
+    /** Advances to the next node in pre-order; returns false after the last one. */
+    public boolean next() {
+        if (index + 1 >= nodeCount) {
+            return false;
+        }
+        index++;
+        parent = index - readVarint(PARENT);
+        rule = readVarint(RULE);
+        startLine += readSigned(START_LINE);
+        endLine = startLine + readSigned(LINE_SPAN);
+        if (hasContent()) {
+            startOffset += readSigned(START_OFFSET);
+            endOffset = startOffset + readSigned(LENGTH);
+        }
+        return true;
+    }
+
+    public int index() {
+        return index;
+    }
+
+    /** Index of the current node's parent, or -1 for the root. */
+    public int parent() {
+        return parent;
+    }
+
+    /** Grammar rule index of the current node, as in Java8Parser.ruleNames. */
+    public int ruleIndex() {
+        return ruleIndices[rule];
+    }
+
+    public String ruleName() {
+        return ruleNames[rule];
+    }
+
+    public int startLine() {
+        return startLine;
+    }
+
+    public int endLine() {
+        return endLine;
+    }
+
+    /** Char offset into the content of the current node's first token. */
+    public int startOffset() {
+        return startOffset;
+    }
+
+    public int endOffset() {
+        return endOffset;
+    }
+
+    /** Source text of the current node, or null when the file has no content blob. */
+    public String content() {
+        if (!hasContent()) {
+            return null;
+        }
+        if (content == null) {
+            byte[] bytes = new byte[contentLength];
+            data.duplicate().position(contentStart).get(bytes);
+            content = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return content.substring(startOffset, endOffset);
+    }
+
+    private int readVarint(int column) {
+        int value = 0;
+        int shift = 0;
+        int p = positions[column];
+        byte b;
+        do {
+            b = data.get(p++);
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        positions[column] = p;
+        return value;
+    }
+
+    private int readSigned(int column) {
+        int value = readVarint(column);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private int readVarint() {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data.get(position++);
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private String readString() {
+        int length = readVarint();
+        byte[] bytes = new byte[length];
+        data.duplicate().position(position).get(bytes);
+        position += length;
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,155 @@
+package com.kitcode;
+
+import antlr.Java8Parser;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Encodes a NodeTable in the compact binary AST format read by
+ * {@link BinaryAstReader}. All integers are unsigned LEB128 varints; signed
+ * values are zigzag encoded first. A file is laid out as:
+ *
+ * <pre>
+ * magic        "ASTB"
+ * version      varint
+ * flags        varint, bit 0 set when the content blob is present
+ * header       string (varint byte length + UTF-8), empty when absent
+ * rule table   varint count, then per rule: varint grammar index, string name
+ * node count   varint
+ * column sizes one varint byte length per column present
+ * columns      column bytes, back to back in this order:
+ *   parent       index - parent index (the root stores 1)
+ *   rule         position in the rule table
+ *   start line   zigzag delta from the previous node's start line
+ *   line span    zigzag end line - start line
+ *   with content only:
+ *   start offset zigzag delta from the previous node's start offset
+ *   length       zigzag end offset - start offset
+ *   content      UTF-8 source text the offsets point into
+ * </pre>
+ *
+ * Writing all column sizes up front lets a reader locate every column
+ * without decoding the ones before it. Instances reuse their column buffers
+ * across graphs and are not thread-safe; ASTGenerator's writer pool hands
+ * each one to a single caller at a time.
+ */
+final class BinaryAstWriter {
+
+    static final byte[] MAGIC = { 'A', 'S', 'T', 'B' };
+    static final int VERSION = 1;
+    static final int FLAG_CONTENT = 1;
+
+    private final int[] localRule = new int[Java8Parser.ruleNames.length];
+    private final int[] usedRules = new int[Java8Parser.ruleNames.length];
+    private final ByteColumn head = new ByteColumn();
+    private final ByteColumn[] columns = new ByteColumn[6];
+
+    BinaryAstWriter() {
+        Arrays.fill(localRule, -1);
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = new ByteColumn();
+        }
+    }
+
+    void write(OutputStream out, NodeTable nodes, String header, boolean includeContent) throws IOException {
+        for (ByteColumn column : columns) {
+            column.reset();
+        }
+        int ruleCount = 0;
+        int previousLine = 0;
+        int previousOffset = 0;
+        for (int i = 0; i < nodes.size(); i++) {
+            int rule = nodes.rule(i);
+            if (localRule[rule] < 0) {
+                localRule[rule] = ruleCount;
+                usedRules[ruleCount++] = rule;
+            }
+            columns[0].writeVarint(i - nodes.parent(i));
+            columns[1].writeVarint(localRule[rule]);
+            columns[2].writeSigned(nodes.startLine(i) - previousLine);
+            columns[3].writeSigned(nodes.endLine(i) - nodes.startLine(i));
+            previousLine = nodes.startLine(i);
+            if (includeContent) {
+                columns[4].writeSigned(nodes.startOffset(i) - previousOffset);
+                columns[5].writeSigned(nodes.endOffset(i) - nodes.startOffset(i));
+                previousOffset = nodes.startOffset(i);
+            }
+        }
+
+        head.reset();
+        head.write(MAGIC, 0, MAGIC.length);
+        head.writeVarint(VERSION);
+        head.writeVarint(includeContent ? FLAG_CONTENT : 0);
+        head.writeString(header == null ? "" : header);
+        head.writeVarint(ruleCount);
+        for (int r = 0; r < ruleCount; r++) {
+            head.writeVarint(usedRules[r]);
+            head.writeString(Java8Parser.ruleNames[usedRules[r]]);
+            localRule[usedRules[r]] = -1;
+        }
+        head.writeVarint(nodes.size());
+        int columnCount = includeContent ? 6 : 4;
+        for (int c = 0; c < columnCount; c++) {
+            head.writeVarint(columns[c].size);
+        }
+        byte[] content = includeContent ? nodes.source().getBytes(StandardCharsets.UTF_8) : null;
+        if (content != null) {
+            head.writeVarint(content.length);
+        }
+
+        head.flushTo(out);
+        for (int c = 0; c < columnCount; c++) {
+            columns[c].flushTo(out);
+        }
+        if (content != null) {
+            out.write(content);
+        }
+    }
+
+    private static final class ByteColumn {
+        private byte[] data = new byte[1024];
+        private int size;
+
+        void reset() {
+            size = 0;
+        }
+
+        void writeVarint(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                data[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[size++] = (byte) value;
+        }
+
+        void writeSigned(int value) {
+            writeVarint((value << 1) ^ (value >> 31));
+        }
+
+        void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        void write(byte[] bytes, int offset, int length) {
+            ensure(length);
+            System.arraycopy(bytes, offset, data, size, length);
+            size += length;
+        }
+
+        void flushTo(OutputStream out) throws IOException {
+            out.write(data, 0, size);
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, size + extra));
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.kitcode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Minimal argument parser shared by the command line tools. Positional
+ * arguments keep their historical meaning; options are given as
+ * "--name value" or "--name=value", and flags as a bare "--name".
+ */
+final class CommandLine {
+
+    private final List<String> positional = new ArrayList<String>();
+    private final Map<String, String> options = new HashMap<String, String>();
+    private final Set<String> flags = new HashSet<String>();
+
+    private CommandLine() {
+    }
+
+    static CommandLine parse(String[] args, String... flagNames) {
+        Set<String> knownFlags = new HashSet<String>(Arrays.asList(flagNames));
+        CommandLine cl = new CommandLine();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                cl.positional.add(arg);
+                continue;
+            }
+            String name = arg.substring(2);
+            int eq = name.indexOf('=');
+            if (eq >= 0) {
+                cl.options.put(name.substring(0, eq), name.substring(eq + 1));
+            } else if (knownFlags.contains(name)) {
+                cl.flags.add(name);
+            } else if (i + 1 < args.length) {
+                cl.options.put(name, args[++i]);
+            } else {
+                throw new IllegalArgumentException("Missing value for option --" + name);
+            }
+        }
+        return cl;
+    }
+
+    String positional(int index, String defaultValue) {
+        return index < positional.size() ? positional.get(index) : defaultValue;
+    }
+
+    String option(String name, String defaultValue) {
+        String value = options.get(name);
+        return value != null ? value : defaultValue;
+    }
+
+    int intOption(String name, int defaultValue) {
+        String value = options.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Option --" + name + " expects an integer, got: " + value);
+        }
+    }
+
+    /** Reads a byte size such as "65536", "512k", "64m" or "1g". */
+    long sizeOption(String name, long defaultValue) {
+        String value = options.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        String trimmed = value.trim().toLowerCase(Locale.ROOT);
+        long unit = 1;
+        if (trimmed.endsWith("k")) {
+            unit = 1L << 10;
+        } else if (trimmed.endsWith("m")) {
+            unit = 1L << 20;
+        } else if (trimmed.endsWith("g")) {
+            unit = 1L << 30;
+        }
+        if (unit > 1) {
+            trimmed = trimmed.substring(0, trimmed.length() - 1);
+        }
+        try {
+            return Long.parseLong(trimmed) * unit;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Option --" + name + " expects a size, got: " + value);
+        }
+    }
+
+    boolean flag(String name) {
+        return flags.contains(name);
+    }
+}
@@ -0,0 +1,154 @@
+package com.kitcode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a directory tree for created, modified and deleted files with a
+ * given extension. Events are collected until the tree has been quiet for
+ * the debounce interval, so a burst of writes from an exporter becomes one
+ * batch. A tree that never goes quiet still gets a batch once its first
+ * pending event is older than the maximum batch latency. Whether a path in a batch changed or was deleted is decided by
+ * whether it exists when the batch is handed out, which folds any sequence of
+ * events on the same file into its final state. Directories created later are
+ * registered as they appear; when events were lost or a watched directory
+ * disappeared the listener is asked for a full rescan instead.
+ */
+final class DirectoryWatcher implements Closeable {
+
+    interface Listener {
+
+        void changed(List<Path> files) throws IOException;
+
+        void deleted(List<Path> files) throws IOException;
+
+        void rescan() throws IOException;
+    }
+
+    private final WatchService watcher;
+    private final Map<WatchKey, Path> directories = new HashMap<WatchKey, Path>();
+    private final String extension;
+    private final long debounceMillis;
+    private final long maxLatencyMillis;
+
+    private final Set<Path> pending = new LinkedHashSet<Path>();
+    private boolean rescan;
+
+    DirectoryWatcher(Path root, String extension, long debounceMillis, long maxLatencyMillis) throws IOException {
+        this.watcher = FileSystems.getDefault().newWatchService();
+        this.extension = extension;
+        this.debounceMillis = debounceMillis;
+        this.maxLatencyMillis = maxLatencyMillis;
+        registerTree(root, false);
+    }
+
+    /** Delivers batches to the listener until the thread is interrupted or the watcher is closed. */
+    void run(Listener listener) throws IOException {
+        try {
+            while (true) {
+                collect(watcher.take());
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxLatencyMillis);
+                long left;
+                WatchKey key;
+                while ((left = deadline - System.nanoTime()) > 0
+                        && (key = watcher.poll(Math.min(TimeUnit.MILLISECONDS.toNanos(debounceMillis), left), TimeUnit.NANOSECONDS)) != null) {
+                    collect(key);
+                }
+                deliver(listener);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // Closed from another thread; stop watching.
+        }
+    }
+
+    private void collect(WatchKey key) throws IOException {
+        Path dir = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                rescan = true;
+                continue;
+            }
+            Path child = dir.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(child)) {
+                registerTree(child, true);
+            } else if (child.toString().endsWith(extension)) {
+                pending.add(child);
+            }
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+            rescan = true;
+        }
+    }
+
+    private void deliver(Listener listener) throws IOException {
+        if (rescan) {
+            rescan = false;
+            pending.clear();
+            listener.rescan();
+            return;
+        }
+        List<Path> changed = new ArrayList<Path>();
+        List<Path> deleted = new ArrayList<Path>();
+        for (Path file : pending) {
+            (Files.isRegularFile(file) ? changed : deleted).add(file);
+        }
+        pending.clear();
+        if (!deleted.isEmpty()) {
+            listener.deleted(deleted);
+        }
+        if (!changed.isEmpty()) {
+            listener.changed(changed);
+        }
+    }
+
+    /**
+     * Registers dir and every directory below it. Files already inside a
+     * directory that appeared after startup count as changed, since their
+     * creation events may have fired before the directory was registered.
+     */
+    private void registerTree(Path dir, boolean collectFiles) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path subdir, BasicFileAttributes attributes) throws IOException {
+                WatchKey key = subdir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                directories.put(key, subdir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                if (collectFiles && file.toString().endsWith(extension)) {
+                    pending.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        watcher.close();
+    }
+}
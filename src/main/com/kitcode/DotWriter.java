@@ -0,0 +1,162 @@
+package com.kitcode;
+
+import antlr.Java8Parser;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import org.antlr.v4.runtime.Token;
+
+/**
+ * Streams a NodeTable as a DOT graph. Labels are escaped in a single pass
+ * straight from the token spans of the source, so writing a graph creates no
+ * per-node Strings. Not thread-safe: ASTGenerator lends an instance to one
+ * caller at a time from its writer pool.
+ */
+final class DotWriter extends Utf8TextWriter {
+
+    private static final String EOF_TEXT = "<EOF>";
+
+    private int[] nodeIds = new int[256];
+
+    void write(OutputStream out, NodeTable nodes, String header) throws IOException {
+        write(out, nodes, header, true);
+    }
+
+    /**
+     * Writes the graph; without rule names each node only carries its integer
+     * type, to be resolved through the run's {@link RuleVocabulary}.
+     */
+    void write(OutputStream out, NodeTable nodes, String header, boolean ruleNames) throws IOException {
+        begin(out);
+        append("digraph G {\n");
+        if (header != null && !header.isEmpty()) {
+            append("graph [comment=\"");
+            append(header);
+            append("\"]\n");
+        }
+        writeLabels(nodes, ruleNames);
+        writeEdges(nodes);
+        append("}\n");
+        end();
+    }
+
+    private void writeLabels(NodeTable nodes, boolean ruleNames) throws IOException {
+        if (nodeIds.length < nodes.size()) {
+            nodeIds = new int[Math.max(nodes.size(), nodeIds.length * 2)];
+        }
+        for (int i = 0; i < nodes.size(); i++) {
+            // Same id as hashing the escaped label followed by the node index.
+            int hash = hashDigits(hashLabel(nodes, i), i);
+            int nodeId = Math.abs(hash);
+            nodeIds[i] = nodeId;
+
+            append('"');
+            appendInt(nodeId);
+            append("\" [ label=\"");
+            appendLabel(nodes, i);
+            append("\" type=");
+            appendInt(nodes.rule(i));
+            if (ruleNames) {
+                append(" typeName=");
+                append(Java8Parser.ruleNames[nodes.rule(i)]);
+            }
+            append(" startLineNumber=");
+            appendInt(nodes.startLine(i));
+            append(" endLineNumber=");
+            appendInt(nodes.endLine(i));
+            append(" ]\n");
+        }
+    }
+
+    private void writeEdges(NodeTable nodes) throws IOException {
+        for (int i = 1; i < nodes.size(); i++) {
+            int parent = nodes.parent(i);
+            if (parent < 0) {
+                continue;
+            }
+            append('"');
+            appendInt(nodeIds[parent]);
+            append("\" -> \"");
+            appendInt(nodeIds[i]);
+            append("\"\n");
+        }
+    }
+
+    private static int hashLabel(NodeTable nodes, int node) {
+        String source = nodes.source();
+        List<Token> tokens = nodes.tokens();
+        int hash = 0;
+        for (int t = nodes.startToken(node); t <= nodes.stopToken(node); t++) {
+            Token token = tokens.get(t);
+            if (token.getType() == Token.EOF) {
+                for (int k = 0; k < EOF_TEXT.length(); k++) {
+                    hash = 31 * hash + EOF_TEXT.charAt(k);
+                }
+                continue;
+            }
+            for (int k = token.getStartIndex(); k <= token.getStopIndex(); k++) {
+                char c = source.charAt(k);
+                char escaped = escapeOf(c);
+                if (escaped != 0) {
+                    hash = 31 * (31 * hash + '\\') + escaped;
+                } else {
+                    hash = 31 * hash + c;
+                }
+            }
+        }
+        return hash;
+    }
+
+    private static int hashDigits(int hash, int value) {
+        int divisor = 1;
+        while (divisor <= value / 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            hash = 31 * hash + ('0' + (value / divisor) % 10);
+        }
+        return hash;
+    }
+
+    private void appendLabel(NodeTable nodes, int node) throws IOException {
+        String source = nodes.source();
+        List<Token> tokens = nodes.tokens();
+        for (int t = nodes.startToken(node); t <= nodes.stopToken(node); t++) {
+            Token token = tokens.get(t);
+            if (token.getType() == Token.EOF) {
+                append(EOF_TEXT);
+                continue;
+            }
+            for (int k = token.getStartIndex(); k <= token.getStopIndex(); k++) {
+                char c = source.charAt(k);
+                char escaped = escapeOf(c);
+                if (escaped != 0) {
+                    append('\\');
+                    append(escaped);
+                } else {
+                    append(c);
+                }
+            }
+        }
+    }
+
+    /** Returns the char that follows a backslash when c is escaped, or 0. */
+    private static char escapeOf(char c) {
+        switch (c) {
+            case '\\':
+                return '\\';
+            case '"':
+                return '"';
+            case '\n':
+                return 'n';
+            case '\r':
+                return 'r';
+            case '\t':
+                return 't';
+            default:
+                return 0;
+        }
+    }
+}
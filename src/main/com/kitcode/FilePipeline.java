@@ -0,0 +1,326 @@
+package com.kitcode;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Three-stage read, parse and write pipeline over the files of a directory
+ * walk. Reads and writes run on virtual threads, so waiting on the file
+ * system costs no cores; parsing runs on a fixed pool of platform threads.
+ * The stages are connected by bounded queues and the number of reads and
+ * writes in flight is capped, so a slow stage holds back the ones before it
+ * and memory use does not grow with the corpus.
+ *
+ * <p>Every file's error messages are collected while it moves through the
+ * pipeline and printed on stderr together as soon as it leaves, so the
+ * lines of one file never interleave with another's. Files are reported in
+ * completion order; each message names its file.
+ *
+ * <p>With largest-first scheduling the walk is collected and sorted by file
+ * size before anything is read, the longest-processing-time heuristic: big
+ * files start early instead of leaving one core busy at the end of the run.
+ * The run then prints the makespan predicted by an LPT assignment of the
+ * sizes to the parse threads next to the measured one.
+ *
+ * <p>When given {@link RunMetrics}, the pipeline records read and write
+ * latencies and the bytes read; the stages record their own CPU stages.
+ */
+final class FilePipeline<T> {
+
+    interface Stages<T> {
+
+        /**
+         * CPU-bound work for one file, on the parse pool. Returns what the
+         * write stage should persist, or null when there is nothing to write.
+         */
+        T parse(Path file, String source, List<String> errors);
+
+        /** Persists a parse result, on a virtual thread. */
+        void write(Path file, T result, List<String> errors);
+
+        void readFailed(Path file, IOException e, List<String> errors);
+    }
+
+    private static final Item<?> END = new Item<Object>(null);
+
+    private final Stages<T> stages;
+    private final RunMetrics metrics;
+    private final BlockingQueue<Item<T>> parseQueue;
+    private final BlockingQueue<Item<T>> writeQueue;
+    private final Semaphore reads;
+    private final Semaphore writes;
+
+    private final LongAdder parseNanos = new LongAdder();
+    private final LongAdder parsedBytes = new LongAdder();
+    private final AtomicLong firstParseStart = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong lastParseEnd = new AtomicLong(Long.MIN_VALUE);
+    private final AtomicLong longestParse = new AtomicLong();
+
+    private FilePipeline(Stages<T> stages, RunMetrics metrics, int queueSize) {
+        this.stages = stages;
+        this.metrics = metrics;
+        this.parseQueue = new ArrayBlockingQueue<Item<T>>(queueSize);
+        this.writeQueue = new ArrayBlockingQueue<Item<T>>(queueSize);
+        this.reads = new Semaphore(queueSize);
+        this.writes = new Semaphore(queueSize);
+    }
+
+    static <T> void run(Iterator<Path> files, int parseThreads, int queueSize, boolean largestFirst, RunMetrics metrics, Stages<T> stages) throws IOException {
+        if (parseThreads < 1 || queueSize < 1) {
+            throw new IllegalArgumentException("Thread count and queue size must be positive");
+        }
+        FilePipeline<T> pipeline = new FilePipeline<T>(stages, metrics, queueSize);
+        if (!largestFirst) {
+            pipeline.run(pipeline.walkOrder(files), parseThreads);
+            return;
+        }
+        List<Item<T>> items = pipeline.largestFirst(files);
+        long predictedLoad = predictLoad(items, parseThreads);
+        pipeline.run(items.iterator(), parseThreads);
+        pipeline.reportMakespan(predictedLoad, parseThreads);
+    }
+
+    private void run(Iterator<Item<T>> items, int parseThreads) throws IOException {
+        Thread[] parsers = new Thread[parseThreads];
+        for (int i = 0; i < parseThreads; i++) {
+            parsers[i] = Thread.ofPlatform().name("parse-" + (i + 1)).start(this::parseLoop);
+        }
+        Thread writer = Thread.ofVirtual().name("write-dispatch").start(this::writeLoop);
+        try {
+            try (ExecutorService readers = Executors.newVirtualThreadPerTaskExecutor()) {
+                while (items.hasNext()) {
+                    Item<T> item = items.next();
+                    reads.acquire();
+                    readers.execute(() -> read(item));
+                }
+            }
+            for (int i = 0; i < parseThreads; i++) {
+                parseQueue.put(end());
+            }
+            for (Thread parser : parsers) {
+                parser.join();
+            }
+            writeQueue.put(end());
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (Thread parser : parsers) {
+                parser.interrupt();
+            }
+            writer.interrupt();
+            throw new InterruptedIOException("Interrupted while processing files");
+        }
+    }
+
+    private void read(Item<T> item) {
+        try {
+            long start = System.nanoTime();
+            if (item.size < 0) {
+                // Walk order skips the size pre-scan; rates are in bytes, not chars.
+                item.size = Files.size(item.file);
+            }
+            item.source = Files.readString(item.file, StandardCharsets.UTF_8);
+            if (metrics != null) {
+                metrics.record(RunMetrics.Stage.READ, System.nanoTime() - start);
+                metrics.fileRead(item.size);
+            }
+            parseQueue.put(item);
+        } catch (IOException e) {
+            stages.readFailed(item.file, e, item.errors);
+            report(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException | Error e) {
+            item.errors.add("Failed to process " + item.file + ": " + e);
+            internalFailure();
+            report(item);
+        } finally {
+            reads.release();
+        }
+    }
+
+    private void parseLoop() {
+        try {
+            while (true) {
+                Item<T> item = parseQueue.take();
+                if (item == END) {
+                    return;
+                }
+                boolean queued = false;
+                try {
+                    parse(item);
+                    if (item.result != null) {
+                        writeQueue.put(item);
+                        queued = true;
+                    }
+                } finally {
+                    if (!queued) {
+                        report(item);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Parses one item. Anything it throws, including a StackOverflowError
+     * from the deeply recursive parser, fails only that item, so the parse
+     * thread lives on and the item is still reported.
+     */
+    private void parse(Item<T> item) {
+        long start = System.nanoTime();
+        firstParseStart.accumulateAndGet(start, Math::min);
+        try {
+            item.result = stages.parse(item.file, item.source, item.errors);
+        } catch (RuntimeException | Error e) {
+            item.result = null;
+            item.errors.add("Failed to process " + item.file + ": " + e);
+            internalFailure();
+        }
+        long end = System.nanoTime();
+        lastParseEnd.accumulateAndGet(end, Math::max);
+        longestParse.accumulateAndGet(end - start, Math::max);
+        parseNanos.add(end - start);
+        parsedBytes.add(item.size);
+        item.source = null;
+    }
+
+    private void writeLoop() {
+        try (ExecutorService writers = Executors.newVirtualThreadPerTaskExecutor()) {
+            while (true) {
+                Item<T> item = writeQueue.take();
+                if (item == END) {
+                    return;
+                }
+                writes.acquire();
+                writers.execute(() -> {
+                    long start = System.nanoTime();
+                    try {
+                        stages.write(item.file, item.result, item.errors);
+                    } catch (RuntimeException | Error e) {
+                        item.errors.add("Failed to process " + item.file + ": " + e);
+                        internalFailure();
+                    } finally {
+                        if (metrics != null) {
+                            metrics.record(RunMetrics.Stage.WRITE, System.nanoTime() - start);
+                        }
+                        item.result = null;
+                        writes.release();
+                        report(item);
+                    }
+                });
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void internalFailure() {
+        if (metrics != null) {
+            metrics.failure("internal");
+        }
+    }
+
+    /** Prints a file's messages as one block; nothing is held back for other files. */
+    private synchronized void report(Item<T> item) {
+        for (String error : item.errors) {
+            System.err.println(error);
+        }
+    }
+
+    private Iterator<Item<T>> walkOrder(Iterator<Path> files) {
+        return new Iterator<Item<T>>() {
+            @Override
+            public boolean hasNext() {
+                return files.hasNext();
+            }
+
+            @Override
+            public Item<T> next() {
+                return new Item<T>(files.next());
+            }
+        };
+    }
+
+    /** Collects the walk and orders it by decreasing size. */
+    private List<Item<T>> largestFirst(Iterator<Path> files) {
+        List<Item<T>> items = new ArrayList<Item<T>>();
+        while (files.hasNext()) {
+            Item<T> item = new Item<T>(files.next());
+            try {
+                item.size = Files.size(item.file);
+            } catch (IOException e) {
+                // The read stage reports it.
+            }
+            items.add(item);
+        }
+        items.sort(Comparator.comparingLong((Item<T> item) -> item.size).reversed());
+        return items;
+    }
+
+    /**
+     * Greedy LPT assignment: each file, largest first, goes to the least
+     * loaded thread. Returns the largest load in bytes.
+     */
+    private static long predictLoad(List<? extends Item<?>> items, int threads) {
+        PriorityQueue<Long> loads = new PriorityQueue<Long>();
+        for (int i = 0; i < threads; i++) {
+            loads.add(0L);
+        }
+        long max = 0;
+        for (Item<?> item : items) {
+            long load = loads.poll() + Math.max(item.size, 0);
+            max = Math.max(max, load);
+            loads.add(load);
+        }
+        return max;
+    }
+
+    /** Converts the predicted load to time using the parse rate measured in this run. */
+    private void reportMakespan(long predictedLoad, int threads) {
+        long bytes = parsedBytes.sum();
+        if (bytes == 0) {
+            return;
+        }
+        double nanosPerByte = (double) parseNanos.sum() / bytes;
+        double predicted = predictedLoad * nanosPerByte / 1e9;
+        double actual = (lastParseEnd.get() - firstParseStart.get()) / 1e9;
+        System.out.println(String.format("Parse makespan on %d threads: predicted %.2fs, actual %.2fs (longest file %.2fs)",
+                threads, predicted, actual, longestParse.get() / 1e9));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Item<T> end() {
+        return (Item<T>) END;
+    }
+
+    private static final class Item<T> {
+
+        final Path file;
+        final List<String> errors = new ArrayList<String>(0);
+        long size = -1;
+        String source;
+        T result;
+
+        Item(Path file) {
+            this.file = file;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.kitcode;
+
+import java.util.Locale;
+
+/** Output formats the graph generators can write. */
+public enum GraphFormat {
+    DOT("dot", ".dot", false, true),
+    BINARY("bin", ".astb", false, true),
+    NDJSON("ndjson", ".ndjson", true, true),
+    NPY("npy", ".npy", true, false),
+    NPZ("npz", ".npz", true, false);
+
+    private final String optionName;
+    private final String extension;
+    private final boolean singleStream;
+    private final boolean perGraph;
+
+    GraphFormat(String optionName, String extension, boolean singleStream, boolean perGraph) {
+        this.optionName = optionName;
+        this.extension = extension;
+        this.singleStream = singleStream;
+        this.perGraph = perGraph;
+    }
+
+    public String optionName() {
+        return optionName;
+    }
+
+    public String extension() {
+        return extension;
+    }
+
+    /** True for formats that collect all graphs of a run in one destination. */
+    public boolean singleStream() {
+        return singleStream;
+    }
+
+    /** True for formats that can encode a single graph on its own. */
+    public boolean perGraph() {
+        return perGraph;
+    }
+
+    public static GraphFormat fromOption(String value) {
+        String name = value.trim().toLowerCase(Locale.ROOT);
+        for (GraphFormat format : values()) {
+            if (format.optionName.equals(name)) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("Unknown output format: " + value);
+    }
+}
@@ -0,0 +1,124 @@
+package com.kitcode;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Random access to graphs written by a sharded run. The index is loaded once;
+ * each shard file is memory-mapped on first use, so fetching a graph is a
+ * hash lookup plus a slice of an existing mapping.
+ */
+public final class GraphShardReader implements Closeable {
+
+    private final Path dir;
+    private final Map<String, Entry> entries;
+    private final String[] ruleNames;
+    private final Map<String, ByteBuffer> shards = new HashMap<String, ByteBuffer>();
+
+    private GraphShardReader(Path dir, Map<String, Entry> entries, String[] ruleNames) {
+        this.dir = dir;
+        this.entries = entries;
+        this.ruleNames = ruleNames;
+    }
+
+    /**
+     * Opens a shard directory. When the run used a shared rule vocabulary it is
+     * looked up next to the index or one level up (sharded runs write it once
+     * for all parts), and opening fails if it belongs to a different grammar.
+     */
+    public static GraphShardReader open(Path dir) throws IOException {
+        Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+        try (BufferedReader reader = Files.newBufferedReader(dir.resolve(GraphShardWriter.INDEX_FILE), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] fields = line.split("\t");
+                if (fields.length != 4) {
+                    throw new IOException("Malformed shard index line: " + line);
+                }
+                entries.put(fields[0], new Entry(fields[1], Integer.parseInt(fields[2]), Integer.parseInt(fields[3])));
+            }
+        }
+        return new GraphShardReader(dir, entries, readVocabulary(dir));
+    }
+
+    private static String[] readVocabulary(Path dir) throws IOException {
+        if (Files.exists(dir.resolve(RuleVocabulary.FILE_NAME))) {
+            return RuleVocabulary.read(dir);
+        }
+        Path parent = dir.toAbsolutePath().getParent();
+        if (parent != null && Files.exists(parent.resolve(RuleVocabulary.FILE_NAME))) {
+            return RuleVocabulary.read(parent);
+        }
+        return null;
+    }
+
+    /** Source names in the order their graphs were written. */
+    public Set<String> sourceNames() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    /**
+     * Rule names indexed by the integer rule types in shared-vocabulary
+     * graphs, or null when each graph names its own rules.
+     */
+    public String[] ruleNames() {
+        return ruleNames == null ? null : ruleNames.clone();
+    }
+
+    /**
+     * Returns the bytes of one graph as a read-only buffer positioned at its
+     * start, or null when the index has no graph for the source name. Binary
+     * graphs can be passed straight to {@link BinaryAstReader#wrap}.
+     */
+    public synchronized ByteBuffer graph(String sourceName) throws IOException {
+        Entry entry = entries.get(sourceName);
+        if (entry == null) {
+            return null;
+        }
+        ByteBuffer shard = shards.get(entry.shard);
+        if (shard == null) {
+            try (FileChannel channel = FileChannel.open(dir.resolve(entry.shard), StandardOpenOption.READ)) {
+                shard = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            shards.put(entry.shard, shard);
+        }
+        return shard.slice(entry.offset, entry.length).asReadOnlyBuffer();
+    }
+
+    public String graphText(String sourceName) throws IOException {
+        ByteBuffer graph = graph(sourceName);
+        return graph == null ? null : StandardCharsets.UTF_8.decode(graph).toString();
+    }
+
+    @Override
+    public synchronized void close() {
+        shards.clear();
+    }
+
+    private static final class Entry {
+        final String shard;
+        final int offset;
+        final int length;
+
+        Entry(String shard, int offset, int length) {
+            this.shard = shard;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.kitcode;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Appends many graphs into rolling shard files instead of writing one file
+ * per input. A new shard is started once the current one reaches the shard
+ * size; a graph never spans two shards. Every graph gets a line in
+ * index.tsv with its source name, shard file, byte offset and byte length,
+ * which {@link GraphShardReader} uses for random access.
+ */
+final class GraphShardWriter implements GraphSink {
+
+    static final String INDEX_FILE = "index.tsv";
+    static final long MAX_SHARD_SIZE = 1L << 30;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path dir;
+    private final GraphFormat format;
+    private final boolean includeContent;
+    private final boolean sharedVocabulary;
+    private final long shardSize;
+    private final BufferedWriter index;
+
+    private int shardCount;
+    private String shardName;
+    private CountingOutputStream shard;
+
+    GraphShardWriter(Path dir, GraphFormat format, boolean includeContent, boolean sharedVocabulary, long shardSize) throws IOException {
+        if (shardSize <= 0 || shardSize > MAX_SHARD_SIZE) {
+            throw new IllegalArgumentException("Shard size must be between 1 byte and 1g: " + shardSize);
+        }
+        this.dir = dir;
+        this.format = format;
+        this.includeContent = includeContent;
+        this.sharedVocabulary = sharedVocabulary;
+        this.shardSize = shardSize;
+        Files.createDirectories(dir);
+        this.index = Files.newBufferedWriter(dir.resolve(INDEX_FILE), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public synchronized void add(String sourceName, NodeTable nodes, String header) throws IOException {
+        if (shard == null || shard.count >= shardSize) {
+            rollShard();
+        }
+        long offset = shard.count;
+        ASTGenerator.writeGraph(sourceName, nodes, shard, header, format, includeContent, sharedVocabulary);
+        index.write(sourceName);
+        index.write('\t');
+        index.write(shardName);
+        index.write('\t');
+        index.write(Long.toString(offset));
+        index.write('\t');
+        index.write(Long.toString(shard.count - offset));
+        index.write('\n');
+    }
+
+    private void rollShard() throws IOException {
+        if (shard != null) {
+            shard.close();
+        }
+        shardName = String.format("shard-%05d%s", shardCount++, format.extension());
+        shard = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(dir.resolve(shardName)), BUFFER_SIZE));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (shard != null) {
+            shard.close();
+        }
+        index.close();
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.kitcode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Run-level destination that receives every successfully parsed graph of a
+ * run, as opposed to the default mode of one output file per input.
+ * Implementations must be safe to call from several threads.
+ */
+interface GraphSink extends Closeable {
+
+    void add(String sourceName, NodeTable nodes, String header) throws IOException;
+
+    /**
+     * Opens the run-level sink for the given options, or returns null when
+     * the run should write one output file per input.
+     */
+    static GraphSink open(Path outputDir, GraphFormat format, boolean includeContent, boolean sharedVocabulary, long shardSize, GzipBlockCompressor compressor) throws IOException {
+        if (shardSize > 0) {
+            if (!format.perGraph()) {
+                throw new IllegalArgumentException("Format " + format + " cannot be written to shards");
+            }
+            if (compressor != null) {
+                throw new IllegalArgumentException("Sharded output cannot be compressed");
+            }
+            return new GraphShardWriter(outputDir, format, includeContent, sharedVocabulary, shardSize);
+        }
+        if (format == GraphFormat.NPY || format == GraphFormat.NPZ) {
+            if (compressor != null) {
+                throw new IllegalArgumentException("Format " + format + " is written uncompressed so it can be memory-mapped");
+            }
+            return new NpyGraphWriter(outputDir, format == GraphFormat.NPZ);
+        }
+        if (format.singleStream()) {
+            String fileName = "graphs" + format.extension() + (compressor != null ? ".gz" : "");
+            return new GraphStreamWriter(outputDir.resolve(fileName), format, compressor);
+        }
+        return null;
+    }
+}
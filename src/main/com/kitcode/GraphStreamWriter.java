@@ -0,0 +1,41 @@
+package com.kitcode;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Appends every graph of a run to a single output file, such as
+ * graphs.ndjson, optionally as a block-compressed gzip stream.
+ */
+final class GraphStreamWriter implements GraphSink {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final GraphFormat format;
+    private final OutputStream out;
+
+    GraphStreamWriter(Path path, GraphFormat format, GzipBlockCompressor compressor) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        this.format = format;
+        OutputStream file = Files.newOutputStream(path);
+        this.out = compressor != null
+                ? new ParallelGzipOutputStream(file, compressor)
+                : new BufferedOutputStream(file, BUFFER_SIZE);
+    }
+
+    @Override
+    public synchronized void add(String sourceName, NodeTable nodes, String header) throws IOException {
+        ASTGenerator.writeGraph(sourceName, nodes, out, header, format, false, false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+}
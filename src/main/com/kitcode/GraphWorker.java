@@ -0,0 +1,91 @@
+package com.kitcode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Child process of an isolated run, started by {@link WorkerPool}. Reads
+ * requests from stdin until it is closed and answers each with the rendered
+ * graph, the syntax errors or the failure. On an Error such as
+ * StackOverflowError it sends a CRASHED reply if it still can and exits, since
+ * the JVM may not be in a state worth reusing.
+ *
+ * <p>Usage: GraphWorker [--format dot|ndjson|bin] [--content] [--shared-vocab]
+ */
+final class GraphWorker {
+
+    private static final int CRASH_EXIT_CODE = 70;
+
+    public static void main(String[] args) throws IOException {
+        CommandLine cl = CommandLine.parse(args, "content", "shared-vocab");
+        GraphFormat format = GraphFormat.fromOption(cl.option("format", "dot"));
+        boolean includeContent = cl.flag("content");
+        boolean sharedVocabulary = cl.flag("shared-vocab");
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+        // Stray prints must not end up in the reply stream.
+        System.setOut(System.err);
+        ASTGenerator.parses("class Warmup {}");
+        out.writeByte(WorkerPool.READY);
+        out.flush();
+
+        ByteArrayOutputStream graph = new ByteArrayOutputStream(1 << 16);
+        while (true) {
+            String name;
+            try {
+                name = WorkerPool.readString(in);
+            } catch (EOFException e) {
+                return;
+            }
+            String source = WorkerPool.readString(in);
+            RunMetrics.Timer timer = new RunMetrics().startTimer();
+            List<String> messages = new ArrayList<String>(0);
+            graph.reset();
+            WorkerPool.Status status;
+            try {
+                NodeTable nodes = ASTGenerator.parseNodes(source, null, messages, timer);
+                if (nodes == null) {
+                    status = WorkerPool.Status.SYNTAX_ERROR;
+                } else {
+                    ASTGenerator.writeGraph(name, nodes, graph, JavaDirDotGenerator.extractHeader(source), format, includeContent, sharedVocabulary);
+                    timer.lap(RunMetrics.Stage.EXTRACT);
+                    status = WorkerPool.Status.OK;
+                }
+            } catch (IOException | RuntimeException e) {
+                messages.add(e.toString());
+                status = WorkerPool.Status.FAILED;
+            } catch (Error e) {
+                messages.add(e.toString());
+                reply(out, WorkerPool.Status.CRASHED, messages, new ByteArrayOutputStream(), timer);
+                System.exit(CRASH_EXIT_CODE);
+                return;
+            }
+            reply(out, status, messages, graph, timer);
+        }
+    }
+
+    private static void reply(DataOutputStream out, WorkerPool.Status status, List<String> messages, ByteArrayOutputStream graph, RunMetrics.Timer timer) throws IOException {
+        out.writeByte(status.ordinal());
+        out.writeInt(messages.size());
+        for (String message : messages) {
+            WorkerPool.writeString(out, message);
+        }
+        out.writeInt(graph.size());
+        graph.writeTo(out);
+        out.writeInt(timer.tokenCount());
+        for (RunMetrics.Stage stage : RunMetrics.Stage.values()) {
+            out.writeLong(timer.elapsed(stage));
+        }
+        out.flush();
+    }
+}
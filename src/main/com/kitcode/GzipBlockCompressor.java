@@ -0,0 +1,166 @@
+package com.kitcode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses blocks into standalone gzip members on a dedicated thread pool,
+ * so compression overlaps with parsing. Concatenated members form a valid
+ * gzip stream, which lets {@link ParallelGzipOutputStream} split one output
+ * into independently compressed blocks. The number of blocks in flight is
+ * bounded, and submitting blocks when the pool is saturated waits for a slot.
+ */
+final class GzipBlockCompressor implements Closeable {
+
+    private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+    private final ExecutorService pool;
+    private final Semaphore slots;
+    private final int slotCount;
+    private final ThreadLocal<Deflater> deflaters;
+    private final int blockSize;
+
+    GzipBlockCompressor(int threads, int level, int blockSize) {
+        AtomicInteger counter = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "gzip-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.slotCount = threads * 4;
+        this.slots = new Semaphore(slotCount);
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level, true));
+        this.blockSize = blockSize;
+    }
+
+    int blockSize() {
+        return blockSize;
+    }
+
+    /** Maximum number of blocks that may be compressing at once. */
+    int capacity() {
+        return slotCount;
+    }
+
+    Future<byte[]> submit(byte[] data, int length) throws IOException {
+        acquire();
+        try {
+            return pool.submit(() -> {
+                try {
+                    return compress(data, length);
+                } finally {
+                    slots.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            slots.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Compresses data on the pool and writes it to file, returning once the
+     * file is written and rethrowing any failure. Callers on virtual threads
+     * wait cheaply, so compression still overlaps with parsing.
+     */
+    void writeFile(Path file, byte[] data, int length) throws IOException {
+        acquire();
+        Future<?> write;
+        try {
+            write = pool.submit(() -> {
+                try {
+                    Files.write(file, compress(data, length));
+                    return null;
+                } finally {
+                    slots.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            slots.release();
+            throw e;
+        }
+        try {
+            write.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing " + file);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to write " + file, e.getCause());
+        }
+    }
+
+    private byte[] compress(byte[] data, int length) {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(data, 0, length);
+        deflater.finish();
+
+        byte[] out = new byte[GZIP_HEADER.length + length + (length >> 3) + 64];
+        System.arraycopy(GZIP_HEADER, 0, out, 0, GZIP_HEADER.length);
+        int size = GZIP_HEADER.length;
+        while (!deflater.finished()) {
+            if (size == out.length) {
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+            size += deflater.deflate(out, size, out.length - size);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        if (size + 8 > out.length) {
+            out = Arrays.copyOf(out, size + 8);
+        }
+        size = putIntLE(out, size, (int) crc.getValue());
+        size = putIntLE(out, size, length);
+        return size == out.length ? out : Arrays.copyOf(out, size);
+    }
+
+    private static int putIntLE(byte[] out, int offset, int value) {
+        out[offset] = (byte) value;
+        out[offset + 1] = (byte) (value >>> 8);
+        out[offset + 2] = (byte) (value >>> 16);
+        out[offset + 3] = (byte) (value >>> 24);
+        return offset + 4;
+    }
+
+    private void acquire() throws IOException {
+        try {
+            slots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the compressor");
+        }
+    }
+
+    /** Waits for every block and file in flight, however long they take. */
+    @Override
+    public void close() throws IOException {
+        try {
+            slots.acquire(slotCount);
+            slots.release(slotCount);
+            pool.shutdown();
+            while (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+                System.err.println("Still waiting for compressed writes to finish");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for pending compressed writes");
+        }
+    }
+}
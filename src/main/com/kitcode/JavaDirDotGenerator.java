@@ -1,20 +1,105 @@
 package com.kitcode;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
 import java.util.stream.Stream;
+import java.util.zip.Deflater;
 
-public class JavaDirDotGenerator {
+public class JavaDirDotGenerator implements FilePipeline.Stages<JavaDirDotGenerator.ParsedFile>, DirectoryWatcher.Listener {
 
     private static final String DEFAULT_INPUT_DIR = "graphs/json/java";
     private static final String DEFAULT_OUTPUT_DIR = "graphs/data";
 
+    private static final ThreadLocal<GraphBuffer> GRAPH_BUFFERS = ThreadLocal.withInitial(GraphBuffer::new);
+
+    private final Path baseInput;
+    private final String outputDir;
+    private final GraphFormat format;
+    private final boolean includeContent;
+    private final boolean sharedVocabulary;
+    private final GraphSink sink;
+    private final GzipBlockCompressor compressor;
+    private final OutputFingerprints fingerprints;
+    private final String errorDir;
+    private final RunManifest manifest;
+    private final ShardSpec shard;
+    private final int threads;
+    private final int queueSize;
+    private final boolean largestFirst;
+    private final WorkerPool workers;
+    private final boolean incremental;
+    private final boolean rewriteAll;
+    private final boolean saveStats;
+    private final Path metricsFile;
+    private final RunStats stats = new RunStats();
+    private final RunMetrics metrics = new RunMetrics();
+
+    private JavaDirDotGenerator(Path baseInput, String outputDir, GraphFormat format, boolean includeContent, boolean sharedVocabulary, GraphSink sink, GzipBlockCompressor compressor, OutputFingerprints fingerprints, String errorDir, RunManifest manifest,
+                                ShardSpec shard, int threads, int queueSize, boolean largestFirst, WorkerPool workers, boolean incremental, boolean rewriteAll, boolean saveStats, Path metricsFile) {
+        this.baseInput = baseInput;
+        this.outputDir = outputDir;
+        this.format = format;
+        this.includeContent = includeContent;
+        this.sharedVocabulary = sharedVocabulary;
+        this.sink = sink;
+        this.compressor = compressor;
+        this.fingerprints = fingerprints;
+        this.errorDir = errorDir;
+        this.manifest = manifest;
+        this.shard = shard;
+        this.threads = threads;
+        this.queueSize = queueSize;
+        this.largestFirst = largestFirst;
+        this.workers = workers;
+        this.incremental = incremental;
+        this.rewriteAll = rewriteAll;
+        this.saveStats = saveStats;
+        this.metricsFile = metricsFile;
+    }
+
     public static void main(String[] args) throws IOException {
-        String inputDir = args.length > 0 ? args[0] : DEFAULT_INPUT_DIR;
-        String outputDir = args.length > 1 ? args[1] : DEFAULT_OUTPUT_DIR;
+        CommandLine cl = CommandLine.parse(args, "content", "compress", "rewrite-all", "shared-vocab", "full", "watch", "isolate", "incremental", "stats");
+        String inputDir = cl.positional(0, DEFAULT_INPUT_DIR);
+        String outputDir = cl.positional(1, DEFAULT_OUTPUT_DIR);
+        GraphFormat format = GraphFormat.fromOption(cl.option("format", "dot"));
+        boolean includeContent = cl.flag("content");
+        boolean sharedVocabulary = cl.flag("shared-vocab");
+        long shardSize = cl.sizeOption("shard-size", 0);
+        boolean compress = cl.flag("compress");
+        int compressThreads = cl.intOption("compress-threads", Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        int compressLevel = cl.intOption("compress-level", Deflater.DEFAULT_COMPRESSION);
+        int compressBlock = (int) cl.sizeOption("compress-block", 1 << 20);
+        boolean rewriteAll = cl.flag("rewrite-all");
+        int threads = cl.intOption("threads", Runtime.getRuntime().availableProcessors());
+        int queueSize = cl.intOption("queue-size", 64);
+        boolean largestFirst = !"walk".equals(cl.option("schedule", "largest-first"));
+        String errorDir = cl.option("errors", null);
+        boolean full = cl.flag("full");
+        ShardSpec shard = ShardSpec.parse(cl.option("shard", null));
+        boolean watch = cl.flag("watch");
+        long debounceMillis = cl.intOption("debounce", 500);
+        long maxBatchLatencyMillis = cl.intOption("max-batch-latency", (int) (10 * debounceMillis));
+        int metricsInterval = cl.intOption("metrics-interval", 30);
+        boolean isolate = cl.flag("isolate");
+        String workerOptions = cl.option("worker-opts", null);
+        long workerTimeout = cl.intOption("worker-timeout", 0) * 1000L;
+        // Watch mode keeps the manifest to know which outputs to delete.
+        boolean incremental = cl.flag("incremental") || watch;
+        String metricsFile = cl.option("metrics-json", null);
+        boolean saveStats = cl.flag("stats") || incremental || shard.count() > 1;
+        if (!incremental && full) {
+            throw new IllegalArgumentException("--full only applies with --incremental");
+        }
 
         Path baseInput = Paths.get(inputDir);
         if (!Files.exists(baseInput)) {
@@ -22,26 +107,357 @@ public class JavaDirDotGenerator {
             return;
         }
 
+        long writeFailures;
+        try (GzipBlockCompressor compressor = compress ? new GzipBlockCompressor(compressThreads, compressLevel, compressBlock) : null;
+             GraphSink sink = GraphSink.open(runLevelDir(Paths.get(outputDir), shard), format, includeContent, sharedVocabulary, shardSize, compressor);
+             DirectoryWatcher watcher = watch ? new DirectoryWatcher(baseInput, ".java", debounceMillis, maxBatchLatencyMillis) : null;
+             WorkerPool workers = isolate ? new WorkerPool(threads, workerJvmOptions(workerOptions), workerArgs(format, includeContent, sharedVocabulary), workerTimeout) : null) {
+            if (watcher != null && sink != null) {
+                throw new IllegalArgumentException("Watch mode needs one output file per input");
+            }
+            if (workers != null && sink != null) {
+                throw new IllegalArgumentException("Isolated workers need one output file per input");
+            }
+            if (sharedVocabulary) {
+                RuleVocabulary.write(Paths.get(outputDir));
+            }
+            OutputFingerprints fingerprints = sink == null && incremental && !rewriteAll ? OutputFingerprints.load(Paths.get(outputDir), shard) : null;
+            String options = format.name().toLowerCase(Locale.ROOT) + (includeContent ? ",content" : "") + (sharedVocabulary ? ",shared-vocab" : "")
+                    + (compress ? ",compress" : "") + (errorDir != null ? ",errors" : "");
+            RunManifest manifest = sink == null && incremental ? RunManifest.open(Paths.get(outputDir), shard, options, full) : null;
+            JavaDirDotGenerator generator = new JavaDirDotGenerator(baseInput, outputDir, format, includeContent, sharedVocabulary, sink, compressor,
+                    fingerprints, errorDir, manifest, shard, threads, queueSize, largestFirst, workers, incremental, rewriteAll, saveStats,
+                    metricsFile != null ? Paths.get(metricsFile) : null);
+            generator.metrics.startReporting(metricsInterval);
+            try {
+                generator.rescan();
+                if (watcher != null) {
+                    System.out.println("Watching " + baseInput + " for changes");
+                    watcher.run(generator);
+                }
+            } finally {
+                generator.metrics.stopReporting();
+            }
+            System.out.println(generator.metrics.summary());
+            if (workers != null && workers.restarts() > 0) {
+                System.out.println("Restarted " + workers.restarts() + " crashed workers, quarantined " + generator.stats.get("quarantined") + " inputs");
+            }
+            if (manifest != null) {
+                manifest.close();
+            }
+            writeFailures = generator.metrics.failures("write");
+        }
+        // Inputs that do not parse are expected; outputs that could not be written are not.
+        if (writeFailures > 0) {
+            System.err.println(writeFailures + " outputs could not be written");
+            System.exit(1);
+        }
+    }
+
+    /** Full pass over the input tree; inputs the manifest shows as unchanged are skipped. */
+    @Override
+    public void rescan() throws IOException {
+        if (manifest != null) {
+            manifest.beginScan();
+        }
         try (Stream<Path> paths = Files.walk(baseInput)) {
-            paths.filter(path -> path.toString().endsWith(".java"))
-                 .forEach(path -> {
-                     try {
-                         String source = Files.readString(path, StandardCharsets.UTF_8);
-                         String header = extractHeader(source);
-                         Path outputPath = resolveOutputPath(baseInput, path, outputDir);
-                         Files.createDirectories(outputPath.getParent());
-                         boolean ok = ASTGenerator.generateDotFromString(source, outputPath.toString(), header);
-                         if (!ok) {
-                             System.err.println("Skipping " + path + " due to syntax errors");
-                         }
-                     } catch (IOException e) {
-                         System.err.println("Failed to process " + path + ": " + e.getMessage());
-                     }
-                 });
-        }
-    }
-
-    private static String extractHeader(String source) {
+            FilePipeline.run(paths.filter(this::selected).iterator(), threads, queueSize, largestFirst, metrics, this);
+        }
+        if (sink == null) {
+            System.out.println("Wrote " + stats.get("outputs_written") + " outputs, skipped " + stats.get("outputs_unchanged") + " unchanged");
+        }
+        if (manifest != null) {
+            stats.add("inputs_removed", manifest.removeMissing());
+            System.out.println("Skipped " + stats.get("inputs_unchanged") + " unchanged inputs, removed outputs of "
+                    + stats.get("inputs_removed") + " deleted inputs");
+        }
+        saveState();
+    }
+
+    /** Watch mode: regenerates the graphs of created or modified inputs. */
+    @Override
+    public void changed(List<Path> files) throws IOException {
+        long before = stats.get("outputs_written");
+        FilePipeline.run(files.stream().filter(this::selected).iterator(), threads, queueSize, false, metrics, this);
+        System.out.println("Updated " + (stats.get("outputs_written") - before) + " outputs for " + files.size() + " changed inputs");
+        saveState();
+    }
+
+    /** Watch mode: deletes the outputs of removed inputs. */
+    @Override
+    public void deleted(List<Path> files) throws IOException {
+        int removed = 0;
+        for (Path file : files) {
+            String key = inputKey(file);
+            if (shard.contains(key) && manifest.remove(key)) {
+                removed++;
+            }
+        }
+        stats.add("inputs_removed", removed);
+        System.out.println("Removed outputs of " + removed + " deleted inputs");
+        saveState();
+    }
+
+    private boolean selected(Path path) {
+        return path.toString().endsWith(".java") && shard.contains(inputKey(path)) && !unchanged(path);
+    }
+
+    private void saveState() throws IOException {
+        if (fingerprints != null) {
+            fingerprints.save();
+        }
+        if (manifest != null) {
+            manifest.checkpoint();
+        }
+        // A plain run leaves nothing in the output directory but outputs.
+        if (saveStats) {
+            stats.save(Paths.get(outputDir), shard.suffix());
+        }
+        if (metricsFile != null) {
+            metrics.save(metricsFile);
+        } else if (incremental) {
+            metrics.save(Paths.get(outputDir).resolve(".metrics" + shard.suffix() + ".json"));
+        }
+    }
+
+    /** Checks the manifest for an input whose size and mtime have not changed since the last run. */
+    private boolean unchanged(Path path) {
+        stats.increment("inputs");
+        if (manifest == null) {
+            return false;
+        }
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            if (manifest.unchanged(inputKey(path), attributes.size(), attributes.lastModifiedTime().toMillis())) {
+                stats.increment("inputs_unchanged");
+                return true;
+            }
+        } catch (IOException e) {
+            // Let the read stage report it.
+        }
+        return false;
+    }
+
+    @Override
+    public ParsedFile parse(Path path, String source, List<String> errors) {
+        long inputHash = 0;
+        RunMetrics.Timer timer = null;
+        try {
+            if (manifest != null) {
+                inputHash = Fingerprint.of(source.getBytes(StandardCharsets.UTF_8));
+                if (manifest.sameContent(inputKey(path), inputHash)) {
+                    stats.increment("inputs_unchanged");
+                    return null;
+                }
+            }
+            timer = metrics.startTimer();
+            if (workers != null) {
+                return parseIsolated(path, source, errors, inputHash, timer);
+            }
+            String header = extractHeader(source);
+            NodeTable nodes = ASTGenerator.parseNodes(source, null, errors, timer);
+            if (nodes == null) {
+                errors.add("Skipping " + path + " due to syntax errors");
+                stats.increment("syntax_errors");
+                metrics.failure("syntax");
+                return rejected(path, source, inputHash);
+            }
+            if (sink != null) {
+                return new ParsedFile(nodes, header, null, 0, inputHash, null);
+            }
+            ParsedFile rendered = render(path, nodes, header, inputHash);
+            timer.lap(RunMetrics.Stage.EXTRACT);
+            return rendered;
+        } catch (IOException e) {
+            errors.add("Failed to process " + path + ": " + e.getMessage());
+            stats.increment("failures");
+            metrics.failure("render");
+            return null;
+        } finally {
+            if (timer != null) {
+                timer.commit();
+            }
+        }
+    }
+
+    /**
+     * --isolate: renders the file in a child JVM, one per parse thread. An
+     * input that crashes or hangs its worker is quarantined: reported,
+     * recorded with error status so it is not retried until it changes, and
+     * written as an error artifact when --errors is given.
+     */
+    private ParsedFile parseIsolated(Path path, String source, List<String> errors, long inputHash, RunMetrics.Timer timer) throws IOException {
+        WorkerPool.Result result = workers.process(path.getFileName().toString(), source);
+        timer.tokens(result.tokens);
+        for (int i = 0; i < result.stageNanos.length; i++) {
+            timer.add(RunMetrics.Stage.values()[i], result.stageNanos[i]);
+        }
+        switch (result.status) {
+            case OK:
+                long fingerprint = fingerprints != null ? Fingerprint.of(result.graph) : 0;
+                return new ParsedFile(null, null, result.graph, fingerprint, inputHash, null);
+            case SYNTAX_ERROR:
+                errors.addAll(result.messages);
+                errors.add("Skipping " + path + " due to syntax errors");
+                stats.increment("syntax_errors");
+                metrics.failure("syntax");
+                return rejected(path, source, inputHash);
+            case FAILED:
+                errors.add("Failed to process " + path + ": " + String.join("; ", result.messages));
+                stats.increment("failures");
+                metrics.failure("render");
+                return null;
+            default:
+                errors.add("Quarantined " + path + ": " + String.join("; ", result.messages));
+                stats.increment("quarantined");
+                metrics.failure("crash");
+                return rejected(path, source, inputHash);
+        }
+    }
+
+    /** An input that cannot be rendered: kept for its error artifact, or recorded so it is not retried unchanged. */
+    private ParsedFile rejected(Path path, String source, long inputHash) throws IOException {
+        if (errorDir != null) {
+            return new ParsedFile(null, null, null, 0, inputHash, source);
+        }
+        recordInput(path, inputHash, null, RunManifest.Status.ERROR);
+        return null;
+    }
+
+    private ParsedFile render(Path path, NodeTable nodes, String header, long inputHash) throws IOException {
+        GraphBuffer graph = GRAPH_BUFFERS.get();
+        graph.reset();
+        ASTGenerator.writeGraph(path.getFileName().toString(), nodes, graph, header, format, includeContent, sharedVocabulary);
+        long fingerprint = fingerprints != null ? Fingerprint.of(graph.data(), 0, graph.size()) : 0;
+        return new ParsedFile(null, null, graph.toByteArray(), fingerprint, inputHash, null);
+    }
+
+    @Override
+    public void write(Path path, ParsedFile parsed, List<String> errors) {
+        try {
+            if (parsed.failedSource != null) {
+                Path artifact = JavaDirValidator.writeErrorArtifact(path, errorDir, parsed.failedSource, errors);
+                recordInput(path, parsed.inputHash, artifact, artifact != null ? RunManifest.Status.ERROR : RunManifest.Status.FAILED);
+                return;
+            }
+            try {
+                if (sink != null) {
+                    sink.add(inputKey(path), parsed.nodes, parsed.header);
+                } else {
+                    recordInput(path, parsed.inputHash, writeOutput(path, parsed), RunManifest.Status.OK);
+                }
+            } catch (IOException e) {
+                errors.add("Failed to process " + path + ": " + e.getMessage());
+                stats.increment("failures");
+                metrics.failure("write");
+                recordInput(path, parsed.inputHash, null, RunManifest.Status.FAILED);
+            }
+        } catch (IOException e) {
+            errors.add("Failed to update manifest for " + path + ": " + e.getMessage());
+            metrics.failure("manifest");
+        }
+    }
+
+    @Override
+    public void readFailed(Path path, IOException e, List<String> errors) {
+        errors.add("Failed to process " + path + ": " + e.getMessage());
+        stats.increment("failures");
+        metrics.failure("read");
+        try {
+            recordInput(path, 0, null, RunManifest.Status.FAILED);
+        } catch (IOException journalError) {
+            errors.add("Failed to update manifest for " + path + ": " + journalError.getMessage());
+            metrics.failure("manifest");
+        }
+    }
+
+    private void recordInput(Path path, long inputHash, Path output, RunManifest.Status status) throws IOException {
+        if (manifest != null) {
+            manifest.record(inputKey(path), inputHash, output, status);
+        }
+    }
+
+    /** Run-level sinks of a shard go to their own part directory so shards never share a file. */
+    private static Path runLevelDir(Path outputDir, ShardSpec shard) {
+        return shard.count() == 1 ? outputDir : outputDir.resolve("part" + shard.suffix());
+    }
+
+    /** Child JVM options: the given ones, or by default this JVM's stack size so deep trees parse the same. */
+    private static List<String> workerJvmOptions(String workerOptions) {
+        if (workerOptions != null) {
+            return workerOptions.isBlank() ? List.of() : Arrays.asList(workerOptions.trim().split("\\s+"));
+        }
+        List<String> options = new ArrayList<String>();
+        for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (argument.startsWith("-Xss")) {
+                options.add(argument);
+            }
+        }
+        return options;
+    }
+
+    private static List<String> workerArgs(GraphFormat format, boolean includeContent, boolean sharedVocabulary) {
+        List<String> args = new ArrayList<String>(Arrays.asList("--format", format.optionName()));
+        if (includeContent) {
+            args.add("--content");
+        }
+        if (sharedVocabulary) {
+            args.add("--shared-vocab");
+        }
+        return args;
+    }
+
+    private String inputKey(Path path) {
+        return baseInput.relativize(path).toString().replace('\\', '/');
+    }
+
+    /**
+     * Writes a rendered graph unless the file on disk already holds the same
+     * bytes, judged by the stored fingerprint in incremental runs and by
+     * comparing with the file otherwise. Compressed outputs are only skipped
+     * through the fingerprint store. Returns the output path.
+     */
+    private Path writeOutput(Path path, ParsedFile parsed) throws IOException {
+        Path outputPath = resolveOutputPath(baseInput, path, outputDir, format);
+        if (compressor != null) {
+            outputPath = Paths.get(outputPath + ".gz");
+        }
+        byte[] graph = parsed.graph;
+
+        String key = Paths.get(outputDir).relativize(outputPath).toString().replace('\\', '/');
+        if (unchanged(key, parsed.fingerprint, outputPath, graph)) {
+            stats.increment("outputs_unchanged");
+            return outputPath;
+        }
+
+        Files.createDirectories(outputPath.getParent());
+        if (compressor != null) {
+            compressor.writeFile(outputPath, graph, graph.length);
+        } else {
+            Files.write(outputPath, graph);
+        }
+        // Recorded only once the file is written, so a failed write is retried next run.
+        if (fingerprints != null) {
+            fingerprints.record(key, parsed.fingerprint, compressor != null ? -1 : graph.length);
+        }
+        stats.increment("outputs_written");
+        return outputPath;
+    }
+
+    private boolean unchanged(String key, long fingerprint, Path outputPath, byte[] graph) throws IOException {
+        if (rewriteAll) {
+            return false;
+        }
+        if (fingerprints != null) {
+            return fingerprints.unchanged(key, fingerprint, outputPath);
+        }
+        if (compressor != null || !Files.isRegularFile(outputPath) || Files.size(outputPath) != graph.length) {
+            return false;
+        }
+        return Arrays.equals(Files.readAllBytes(outputPath), graph);
+    }
+
+    static String extractHeader(String source) {
         if (source == null) {
             return null;
         }
@@ -54,14 +470,52 @@ public class JavaDirDotGenerator {
         return null;
     }
 
-    private static Path resolveOutputPath(Path baseInput, Path javaFile, String outputDir) {
-        String fileName = javaFile.getFileName().toString();
-        String dotFileName = fileName.endsWith(".java")
-                ? fileName.substring(0, fileName.length() - 5) + ".dot"
-                : fileName + ".dot";
-
+    private static Path resolveOutputPath(Path baseInput, Path javaFile, String outputDir, GraphFormat format) {
         Path baseOutput = Paths.get(outputDir);
         Path relative = baseInput.relativize(javaFile.getParent());
-        return baseOutput.resolve(relative).resolve(dotFileName);
+        return baseOutput.resolve(relative).resolve(graphFileName(javaFile.getFileName().toString(), format));
+    }
+
+    /** Name of the graph rendered from a Java file: the .java extension is replaced by the format's. */
+    static String graphFileName(String fileName, GraphFormat format) {
+        return fileName.endsWith(".java")
+                ? fileName.substring(0, fileName.length() - 5) + format.extension()
+                : fileName + format.extension();
+    }
+
+    /**
+     * Result of the parse stage: the node table for run-level sinks, or the
+     * rendered graph and its fingerprint for per-file outputs, plus the input
+     * content hash for the run manifest. With --errors,
+     * files that failed to parse keep their source for the error artifact.
+     */
+    static final class ParsedFile {
+
+        final NodeTable nodes;
+        final String header;
+        final byte[] graph;
+        final long fingerprint;
+        final long inputHash;
+        final String failedSource;
+
+        ParsedFile(NodeTable nodes, String header, byte[] graph, long fingerprint, long inputHash, String failedSource) {
+            this.nodes = nodes;
+            this.header = header;
+            this.graph = graph;
+            this.fingerprint = fingerprint;
+            this.inputHash = inputHash;
+            this.failedSource = failedSource;
+        }
+    }
+
+    /** Reusable in-memory graph buffer that exposes its array without copying. */
+    private static final class GraphBuffer extends ByteArrayOutputStream {
+        GraphBuffer() {
+            super(1 << 16);
+        }
+
+        byte[] data() {
+            return buf;
+        }
     }
 }
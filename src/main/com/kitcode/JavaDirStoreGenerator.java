@@ -0,0 +1,68 @@
+package com.kitcode;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+public class JavaDirStoreGenerator {
+
+    private static final String DEFAULT_INPUT_DIR = "graphs/json/java";
+    private static final String DEFAULT_STORE_DIR = "graphs/store";
+
+    public static void main(String[] args) throws IOException {
+        String inputDir = args.length > 0 ? args[0] : DEFAULT_INPUT_DIR;
+        String storeDir = args.length > 1 ? args[1] : DEFAULT_STORE_DIR;
+
+        Path baseInput = Paths.get(inputDir);
+        if (!Files.exists(baseInput)) {
+            System.err.println("Input directory does not exist: " + baseInput);
+            return;
+        }
+
+        try (AstStore.Writer store = AstStore.create(Paths.get(storeDir));
+             Stream<Path> paths = Files.walk(baseInput)) {
+            Iterator<Path> files = paths.filter(path -> path.toString().endsWith(".java")).iterator();
+            while (files.hasNext()) {
+                Path path = files.next();
+                String source;
+                try {
+                    source = Files.readString(path, StandardCharsets.UTF_8);
+                } catch (IOException e) {
+                    System.err.println("Failed to process " + path + ": " + e.getMessage());
+                    continue;
+                }
+                NodeTable nodes = ASTGenerator.parseNodes(source, path.getFileName().toString());
+                if (nodes == null) {
+                    System.err.println("Skipping " + path + " due to syntax errors");
+                    continue;
+                }
+                // A failed add leaves the store unusable, so there is no point in going on.
+                store.add(sourceName(baseInput, path), extractHeader(source), nodes);
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to write AST store " + storeDir + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static String sourceName(Path baseInput, Path javaFile) {
+        return baseInput.relativize(javaFile).toString().replace('\\', '/');
+    }
+
+    private static String extractHeader(String source) {
+        if (source == null) {
+            return null;
+        }
+        int newline = source.indexOf('\n');
+        String firstLine = newline >= 0 ? source.substring(0, newline) : source;
+        String trimmed = firstLine.trim();
+        if (trimmed.startsWith("//")) {
+            return trimmed.substring(2).trim();
+        }
+        return null;
+    }
+}
@@ -5,16 +5,30 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
 import java.util.stream.Stream;
 
-public class JavaDirValidator {
+public class JavaDirValidator implements FilePipeline.Stages<String> {
 
     private static final String DEFAULT_INPUT_DIR = "graphs/json/java";
     private static final String DEFAULT_ERROR_DIR = "graphs/json/errors";
 
+    private final String errorDir;
+    private final RunStats stats = new RunStats();
+
+    private JavaDirValidator(String errorDir) {
+        this.errorDir = errorDir;
+    }
+
     public static void main(String[] args) throws IOException {
-        String inputDir = args.length > 0 ? args[0] : DEFAULT_INPUT_DIR;
-        String errorDir = args.length > 1 ? args[1] : DEFAULT_ERROR_DIR;
+        CommandLine cl = CommandLine.parse(args, "stats");
+        String inputDir = cl.positional(0, DEFAULT_INPUT_DIR);
+        String errorDir = cl.positional(1, DEFAULT_ERROR_DIR);
+        int threads = cl.intOption("threads", Runtime.getRuntime().availableProcessors());
+        int queueSize = cl.intOption("queue-size", 64);
+        boolean largestFirst = !"walk".equals(cl.option("schedule", "largest-first"));
+        ShardSpec shard = ShardSpec.parse(cl.option("shard", null));
+        boolean saveStats = cl.flag("stats") || shard.count() > 1;
 
         Path baseInput = Paths.get(inputDir);
         if (!Files.exists(baseInput)) {
@@ -23,24 +37,48 @@ public class JavaDirValidator {
         }
 
         try (Stream<Path> paths = Files.walk(baseInput)) {
-            paths.filter(path -> path.toString().endsWith(".java"))
-                 .forEach(path -> validateFile(path, errorDir));
+            JavaDirValidator validator = new JavaDirValidator(errorDir);
+            FilePipeline.run(paths.filter(path -> path.toString().endsWith(".java")
+                                 && shard.contains(baseInput.relativize(path).toString().replace('\\', '/'))).iterator(),
+                    threads, queueSize, largestFirst, null, validator);
+            // A plain run leaves nothing in the error directory but error artifacts.
+            if (saveStats) {
+                validator.stats.save(Paths.get(errorDir), shard.suffix());
+            }
         }
     }
 
-    private static void validateFile(Path path, String errorDir) {
-        try {
-            String source = Files.readString(path, StandardCharsets.UTF_8);
-            boolean ok = ASTGenerator.parseOnly(source, path.getFileName().toString());
-            if (!ok) {
-                writeErrorArtifact(path, errorDir, source);
-            }
-        } catch (IOException e) {
-            System.err.println("Failed to read " + path + ": " + e.getMessage());
+    /** Returns the source when it has syntax errors, so the write stage stores it. */
+    @Override
+    public String parse(Path path, String source, List<String> errors) {
+        stats.increment("inputs");
+        if (ASTGenerator.parseOnly(source, path.getFileName().toString(), errors)) {
+            return null;
+        }
+        stats.increment("syntax_errors");
+        return source;
+    }
+
+    @Override
+    public void write(Path path, String source, List<String> errors) {
+        if (writeErrorArtifact(path, errorDir, source, errors) == null) {
+            stats.increment("failures");
         }
     }
 
-    private static void writeErrorArtifact(Path path, String errorDir, String source) {
+    @Override
+    public void readFailed(Path path, IOException e, List<String> errors) {
+        errors.add("Failed to read " + path + ": " + e.getMessage());
+        stats.increment("inputs");
+        stats.increment("failures");
+    }
+
+    /**
+     * Stores a file that failed to parse as errorDir/NAME.txt with its header
+     * and source. Shared with JavaDirDotGenerator's --errors mode. Returns the
+     * artifact path, or null when it could not be written.
+     */
+    static Path writeErrorArtifact(Path path, String errorDir, String source, List<String> errors) {
         try {
             Files.createDirectories(Paths.get(errorDir));
             String baseName = path.getFileName().toString().replace(".java", "");
@@ -50,8 +88,10 @@ public class JavaDirValidator {
             sb.append("header:\n").append(header == null ? "" : header).append("\n\n");
             sb.append("source:\n").append(source);
             Files.writeString(errorFile, sb.toString(), StandardCharsets.UTF_8);
+            return errorFile;
         } catch (IOException e) {
-            System.err.println("Failed to write error artifact for " + path + ": " + e.getMessage());
+            errors.add("Failed to write error artifact for " + path + ": " + e.getMessage());
+            return null;
         }
     }
 
@@ -1,21 +1,34 @@
 package com.kitcode;
 
 import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
-import java.io.Reader;
-import java.lang.reflect.Type;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class JsonDotGenerator {
 
@@ -23,6 +36,11 @@ public class JsonDotGenerator {
     private static final String NORMALIZED_INPUT = "MLCQCodeSmellSamples.normalized.json";
     private static final String DEFAULT_OUTPUT_DIR = "graphs/json";
     private static final String DEFAULT_JAVA_OUTPUT_DIR = "graphs/json/java";
+    private static final String EMPTY_CLASS = "public class Snippet {}";
+    static final String CANONICAL_PREFIX = "canonical";
+
+    private static final ThreadLocal<SnippetNormalizer> NORMALIZERS = ThreadLocal.withInitial(SnippetNormalizer::new);
+    private static final ThreadLocal<ByteArrayOutputStream> GRAPH_BUFFERS = ThreadLocal.withInitial(() -> new ByteArrayOutputStream(1 << 16));
 
     private static class SampleEntry {
         String repo_url;
@@ -53,42 +71,322 @@ public class JsonDotGenerator {
         }
     }
 
+    /** First entry with a given normalized snippet; later duplicates map to its output. */
+    private static final class Canonical {
+        final int index;
+        final String javaFileName;
+
+        Canonical(int index, String javaFileName) {
+            this.index = index;
+            this.javaFileName = javaFileName;
+        }
+    }
+
+    private final String outputDir;
+    private final String javaOutputDir;
+    private final String graphDir;
+    private final GraphFormat format;
+    private final boolean includeContent;
+    private final RunStats stats;
+
+    /**
+     * @param javaOutputDir where the wrapped sources go, or null to skip them
+     * @param graphDir      where graphs rendered straight from the wrapped
+     *                      sources go, or null to only write the sources
+     */
+    private JsonDotGenerator(String outputDir, String javaOutputDir, String graphDir, GraphFormat format, boolean includeContent, RunStats stats) {
+        this.outputDir = outputDir;
+        this.javaOutputDir = javaOutputDir;
+        this.graphDir = graphDir;
+        this.format = format;
+        this.includeContent = includeContent;
+        this.stats = stats;
+    }
+
     public static void main(String[] args) throws IOException {
-        String inputPath = args.length > 0 ? args[0] : resolveDefaultInput();
-        String outputDir = args.length > 1 ? args[1] : DEFAULT_OUTPUT_DIR;
-        String javaOutputDir = args.length > 2 ? args[2] : DEFAULT_JAVA_OUTPUT_DIR;
+        CommandLine cl = CommandLine.parse(args, "dedup", "content", "no-java", "stats");
+        String inputPath = cl.positional(0, resolveDefaultInput());
+        String outputDir = cl.positional(1, DEFAULT_OUTPUT_DIR);
+        String javaOutputDir = cl.flag("no-java") ? null : cl.positional(2, DEFAULT_JAVA_OUTPUT_DIR);
+        String graphDir = cl.option("graphs", null);
+        GraphFormat format = GraphFormat.fromOption(cl.option("format", "dot"));
+        boolean includeContent = cl.flag("content");
+        ShardSpec shard = ShardSpec.parse(cl.option("shard", null));
+        boolean dedup = cl.flag("dedup");
+        boolean saveStats = cl.flag("stats") || shard.count() > 1;
+        int threads = cl.intOption("threads", Runtime.getRuntime().availableProcessors());
+        int queueSize = cl.intOption("queue-size", 64);
+        if (javaOutputDir == null && graphDir == null) {
+            throw new IllegalArgumentException("--no-java needs --graphs, or nothing would be written");
+        }
+        if (graphDir != null && (format.singleStream() || !format.perGraph())) {
+            throw new IllegalArgumentException("--graphs writes one file per snippet; use --format dot or bin");
+        }
 
-        List<SampleEntry> entries = readEntries(inputPath);
         Files.createDirectories(Paths.get(outputDir));
-        Files.createDirectories(Paths.get(javaOutputDir));
-
+        if (javaOutputDir != null) {
+            Files.createDirectories(Paths.get(javaOutputDir));
+        }
+        if (graphDir != null) {
+            Files.createDirectories(Paths.get(graphDir));
+        }
+
+        // Every shard counts the names of all entries, so duplicate-name
+        // suffixes are the same no matter which shard writes the file.
+        // With --dedup, every shard likewise hashes all snippets, so the
+        // first occurrence of a snippet is canonical no matter which shard
+        // it falls in.
+        //
+        // Naming, hashing and the mapping rows are cheap and stay in this
+        // sequential pass; wrapping, parsing and writing run on the pool.
+        RunStats stats = new RunStats();
+        JsonDotGenerator generator = new JsonDotGenerator(outputDir, javaOutputDir, graphDir, format, includeContent, stats);
         Map<String, Integer> nameCounts = new HashMap<String, Integer>();
-        for (int i = 0; i < entries.size(); i++) {
-            SampleEntry entry = entries.get(i);
-            generatePerSnippet(entry, i, outputDir, javaOutputDir, nameCounts);
+        Map<Long, Canonical> canonicals = dedup ? new HashMap<Long, Canonical>() : null;
+        Path mappingFile = Paths.get(outputDir, CANONICAL_PREFIX + shard.suffix() + ".tsv");
+        Path mappingTmp = mappingFile.resolveSibling(mappingFile.getFileName() + ".tmp");
+        try (EntryStream entries = new EntryStream(Paths.get(inputPath));
+             SnippetPool pool = new SnippetPool(generator, threads, queueSize);
+             BufferedWriter mapping = dedup ? Files.newBufferedWriter(mappingTmp, StandardCharsets.UTF_8) : null) {
+            if (mapping != null) {
+                mapping.write("# json_index\tcanonical_json_index\tjava_file" + (graphDir != null ? "\tgraph_file" : "") + "\n");
+            }
+            SampleEntry entry;
+            for (int i = 0; (entry = entries.next()) != null; i++) {
+                String baseName = buildBaseName(entry);
+                int count = nameCounts.getOrDefault(baseName, 0) + 1;
+                nameCounts.put(baseName, count);
+                String javaFileName = applySuffix(baseName, count);
+                Canonical canonical = null;
+                if (canonicals != null) {
+                    canonical = canonicals.putIfAbsent(snippetKey(entry.code_snippet), new Canonical(i, javaFileName));
+                }
+                if (!shard.contains(i)) {
+                    continue;
+                }
+                if (canonical != null) {
+                    mapping.write(i + "\t" + canonical.index + "\t" + generator.outputNames(canonical.javaFileName) + "\n");
+                    stats.increment("duplicates");
+                    continue;
+                }
+                pool.submit(entry, i, javaFileName);
+                stats.increment("snippets");
+                if (mapping != null) {
+                    mapping.write(i + "\t" + i + "\t" + generator.outputNames(javaFileName) + "\n");
+                }
+            }
+        }
+        if (dedup) {
+            Files.move(mappingTmp, mappingFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        // A plain run leaves nothing in the output directory but outputs.
+        if (saveStats) {
+            stats.save(Paths.get(outputDir), shard.suffix());
         }
     }
 
-    private static List<SampleEntry> readEntries(String inputPath) throws IOException {
-        Gson gson = new Gson();
-        Type listType = new TypeToken<List<SampleEntry>>() {}.getType();
-        Path path = Paths.get(inputPath);
-        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
-            return gson.fromJson(reader, listType);
+    /**
+     * Runs generatePerSnippet for the entries of the sequential pass on a
+     * fixed pool, with a bounded number of entries in flight. Entries whose
+     * outputs share a name are written in entry order, the later one waiting
+     * for the earlier, so the last entry wins as in a sequential run. The
+     * first failure stops further submissions and is rethrown by close.
+     */
+    private static final class SnippetPool implements Closeable {
+
+        private final JsonDotGenerator generator;
+        private final ExecutorService executor;
+        private final Semaphore slots;
+        /** Latest task per output name, without the .java extension that graph and error names drop. */
+        private final Map<String, Future<?>> lastByOutput = new HashMap<String, Future<?>>();
+        private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        SnippetPool(JsonDotGenerator generator, int threads, int queueSize) {
+            if (threads < 1 || queueSize < 1) {
+                throw new IllegalArgumentException("Thread count and queue size must be positive");
+            }
+            this.generator = generator;
+            this.executor = Executors.newFixedThreadPool(threads, Thread.ofPlatform().name("snippet-", 1).factory());
+            this.slots = new Semaphore(queueSize);
+        }
+
+        void submit(SampleEntry entry, int index, String javaFileName) throws IOException {
+            rethrowFailure();
+            try {
+                slots.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while processing snippets");
+            }
+            String outputName = javaFileName.endsWith(".java") ? javaFileName.substring(0, javaFileName.length() - 5) : javaFileName;
+            // The pool runs tasks in submission order, so the earlier task
+            // has started by the time this one waits for it.
+            Future<?> previous = lastByOutput.get(outputName);
+            lastByOutput.put(outputName, executor.submit(() -> {
+                try {
+                    if (previous != null) {
+                        previous.get();
+                    }
+                    generator.generatePerSnippet(entry, index, javaFileName);
+                } catch (ExecutionException e) {
+                    // Tasks record their own failures; there is nothing to add.
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (IOException | RuntimeException | Error e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    slots.release();
+                }
+            }));
+        }
+
+        @Override
+        public void close() throws IOException {
+            executor.shutdown();
+            try {
+                while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    // Keep waiting for the tasks already submitted.
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while processing snippets");
+            }
+            rethrowFailure();
         }
+
+        private void rethrowFailure() throws IOException {
+            Throwable e = failure.get();
+            if (e instanceof IOException) {
+                throw (IOException) e;
+            }
+            if (e instanceof Error) {
+                throw (Error) e;
+            }
+            if (e != null) {
+                throw (RuntimeException) e;
+            }
+        }
+    }
+
+    /**
+     * Hash of the minimally normalized snippet. Every wrap candidate is built
+     * from it, so snippets with the same key get the same Java source apart
+     * from the header comment.
+     */
+    private static long snippetKey(String snippet) {
+        String normalized = normalizeSnippet(snippet, false);
+        return normalized == null ? 0 : Fingerprint.of(normalized.getBytes(StandardCharsets.UTF_8));
     }
 
-    private static void generatePerSnippet(SampleEntry entry, int index, String outputDir, String javaOutputDir, Map<String, Integer> nameCounts) throws IOException {
-        String baseName = buildBaseName(entry);
-        int count = nameCounts.getOrDefault(baseName, 0) + 1;
-        nameCounts.put(baseName, count);
+    /**
+     * Reads the top-level array of samples one entry at a time, so memory use
+     * does not grow with the input and the first entry is handled as soon as
+     * it has been read.
+     */
+    private static final class EntryStream implements Closeable {
 
-        String javaFileName = applySuffix(baseName, count);
-        Path javaPath = Paths.get(javaOutputDir, javaFileName);
+        private final JsonReader reader;
+        private final TypeAdapter<SampleEntry> adapter = new Gson().getAdapter(SampleEntry.class);
+        private boolean done;
 
+        EntryStream(Path path) throws IOException {
+            this.reader = new JsonReader(Files.newBufferedReader(path, StandardCharsets.UTF_8));
+            reader.beginArray();
+        }
+
+        /** Returns the next entry, or null after the last one. */
+        SampleEntry next() throws IOException {
+            if (done) {
+                return null;
+            }
+            if (!reader.hasNext()) {
+                reader.endArray();
+                done = true;
+                return null;
+            }
+            return adapter.read(reader);
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    /** Mapping columns naming the outputs of a snippet. */
+    private String outputNames(String javaFileName) {
+        return graphDir == null ? javaFileName : javaFileName + "\t" + JavaDirDotGenerator.graphFileName(javaFileName, format);
+    }
+
+    /**
+     * Writes the first wrap candidate that parses. When none does, the
+     * heuristic first choice is written anyway and every candidate is kept in
+     * an artifact under outputDir/errors.
+     *
+     * <p>With a graph directory, the chosen source is also rendered in
+     * memory, exactly as JavaDirDotGenerator would render the written file,
+     * and a snippet that does not parse only gets its error artifact. The
+     * graph is built from the trial parse that accepted the source, so no
+     * snippet is parsed twice.
+     */
+    private void generatePerSnippet(SampleEntry entry, int index, String javaFileName) throws IOException {
         String header = buildHeader(entry, index);
-        String source = buildJavaSource(entry.code_snippet, header);
-        Files.writeString(javaPath, source, StandardCharsets.UTF_8);
+        List<WrapCandidate> candidates = buildWrapCandidates(entry.code_snippet);
+        String source = null;
+        NodeTable nodes = null;
+        // The first pass confirms SLL rejections with LL for the heuristic
+        // pick only: confirming every candidate doubled the cost of the many
+        // snippets no wrapping fixes. SLL can still reject a later candidate
+        // that LL accepts, so a snippet every SLL trial rejected gets a
+        // second pass that confirms the remaining candidates with LL before
+        // it counts as a wrap failure.
+        for (int pass = 0; pass < 2 && source == null; pass++) {
+            for (int i = pass; i < candidates.size() && source == null; i++) {
+                String candidate = addHeaderComment(header, candidates.get(i).source);
+                boolean confirmWithLl = i == 0 || pass == 1;
+                boolean parses;
+                if (graphDir != null) {
+                    nodes = ASTGenerator.trialParseNodes(candidate, confirmWithLl);
+                    parses = nodes != null;
+                } else {
+                    parses = confirmWithLl ? ASTGenerator.parses(candidate) : ASTGenerator.parsesSll(candidate);
+                }
+                if (parses) {
+                    source = candidate;
+                    if (i > 0) {
+                        stats.increment("wrap_fallbacks");
+                    }
+                    if (pass == 1) {
+                        stats.increment("wrap_ll_rescues");
+                    }
+                }
+            }
+        }
+        if (source == null) {
+            writeFailureArtifact(outputDir, javaFileName, header, entry.code_snippet, candidates);
+            stats.increment("wrap_failures");
+            if (javaOutputDir != null) {
+                Files.writeString(Paths.get(javaOutputDir, javaFileName), addHeaderComment(header, candidates.get(0).source), StandardCharsets.UTF_8);
+            }
+            return;
+        }
+        if (javaOutputDir != null) {
+            Files.writeString(Paths.get(javaOutputDir, javaFileName), source, StandardCharsets.UTF_8);
+        }
+        if (graphDir != null) {
+            writeGraph(javaFileName, source, nodes);
+        }
+    }
+
+    private void writeGraph(String javaFileName, String source, NodeTable nodes) throws IOException {
+        ByteArrayOutputStream graph = GRAPH_BUFFERS.get();
+        graph.reset();
+        ASTGenerator.writeGraph(javaFileName, nodes, graph, JavaDirDotGenerator.extractHeader(source), format, includeContent, false);
+        try (OutputStream out = Files.newOutputStream(Paths.get(graphDir, JavaDirDotGenerator.graphFileName(javaFileName, format)))) {
+            graph.writeTo(out);
+        }
+        stats.increment("graphs");
     }
 
     private static String buildBaseName(SampleEntry entry) {
@@ -129,73 +427,52 @@ public class JsonDotGenerator {
         return "// " + header + "\n" + source;
     }
 
-    private static String buildJavaSource(String snippet, String header) {
-        WrapCandidate chosen = selectWrapCandidate(snippet);
-        String source = chosen != null ? chosen.source : "public class Snippet {}";
-        return addHeaderComment(header, source);
-    }
-
-    private static WrapCandidate selectWrapCandidate(String snippet) {
+    /**
+     * Wrappings to trial-parse, in heuristic order: first those the
+     * looksLike checks accept, in the order they are checked (so the first
+     * candidate is the heuristic's own pick), then the remaining statement,
+     * member and type wrappings of both normalizations. Duplicate sources are
+     * dropped.
+     */
+    private static List<WrapCandidate> buildWrapCandidates(String snippet) {
         String minimal = normalizeSnippet(snippet, false);
-        String aggressive = normalizeSnippet(snippet, true);
-
         if (minimal == null) {
-            return new WrapCandidate("public class Snippet {}", "min-empty");
+            return Arrays.asList(new WrapCandidate(EMPTY_CLASS, "min-empty"));
         }
-
+        String aggressive = normalizeSnippet(snippet, true);
         String trimmedMin = minimal.trim();
-        String trimmedAgg = aggressive != null ? aggressive.trim() : null;
+        String trimmedAgg = aggressive.trim();
 
+        Map<String, WrapCandidate> candidates = new LinkedHashMap<String, WrapCandidate>();
         if (looksLikeTypeDeclaration(trimmedMin)) {
-            return new WrapCandidate(trimmedMin, "min-type");
+            addCandidate(candidates, trimmedMin, "min-type");
         }
-        if (trimmedAgg != null && looksLikeTypeDeclaration(trimmedAgg)) {
-            return new WrapCandidate(trimmedAgg, "agg-type");
+        if (looksLikeTypeDeclaration(trimmedAgg)) {
+            addCandidate(candidates, trimmedAgg, "agg-type");
         }
         if (looksLikeStatement(trimmedMin)) {
-            return new WrapCandidate(wrapAsStatement(minimal), "min-statement");
+            addCandidate(candidates, wrapAsStatement(minimal), "min-statement");
         }
         if (looksLikeMemberDeclaration(trimmedMin)) {
-            return new WrapCandidate(wrapAsMember(minimal), "min-member");
+            addCandidate(candidates, wrapAsMember(minimal), "min-member");
         }
-        if (trimmedAgg != null && looksLikeStatement(trimmedAgg)) {
-            return new WrapCandidate(wrapAsStatement(aggressive), "agg-statement");
+        if (looksLikeStatement(trimmedAgg)) {
+            addCandidate(candidates, wrapAsStatement(aggressive), "agg-statement");
         }
-        if (trimmedAgg != null && looksLikeMemberDeclaration(trimmedAgg)) {
-            return new WrapCandidate(wrapAsMember(aggressive), "agg-member");
+        if (looksLikeMemberDeclaration(trimmedAgg)) {
+            addCandidate(candidates, wrapAsMember(aggressive), "agg-member");
         }
-        return new WrapCandidate(wrapAsStatement(minimal), "min-default");
+        addCandidate(candidates, wrapAsStatement(minimal), "min-statement");
+        addCandidate(candidates, wrapAsMember(minimal), "min-member");
+        addCandidate(candidates, trimmedMin, "min-type");
+        addCandidate(candidates, wrapAsStatement(aggressive), "agg-statement");
+        addCandidate(candidates, wrapAsMember(aggressive), "agg-member");
+        addCandidate(candidates, trimmedAgg, "agg-type");
+        return new ArrayList<WrapCandidate>(candidates.values());
     }
 
-    private static List<WrapCandidate> buildWrapCandidates(String snippet) {
-        String normalized = normalizeSnippet(snippet, false);
-        if (normalized == null) {
-            return Arrays.asList(new WrapCandidate("public class Snippet {}", "empty"));
-        }
-
-        String trimmed = normalized.trim();
-        if (looksLikeTypeDeclaration(trimmed)) {
-            return Arrays.asList(new WrapCandidate(trimmed, "type"));
-        }
-
-        if (looksLikeStatement(trimmed)) {
-            return Arrays.asList(
-                    new WrapCandidate(wrapAsStatement(normalized), "statement"),
-                    new WrapCandidate(wrapAsMember(normalized), "member")
-            );
-        }
-
-        if (looksLikeMemberDeclaration(trimmed)) {
-            return Arrays.asList(
-                    new WrapCandidate(wrapAsMember(normalized), "member"),
-                    new WrapCandidate(wrapAsStatement(normalized), "statement")
-            );
-        }
-
-        return Arrays.asList(
-                new WrapCandidate(wrapAsStatement(normalized), "statement"),
-                new WrapCandidate(wrapAsMember(normalized), "member")
-        );
+    private static void addCandidate(Map<String, WrapCandidate> candidates, String source, String mode) {
+        candidates.putIfAbsent(source, new WrapCandidate(source, mode));
     }
 
     private static String normalizeSnippet(String snippet, boolean aggressive) {
@@ -203,24 +480,7 @@ public class JsonDotGenerator {
             return null;
         }
 
-        MaskedText masked = maskStringLiterals(snippet);
-        String normalized = masked.text;
-        if (aggressive) {
-            String[] keywords = {
-                    "public", "protected", "private", "static", "final", "abstract", "native", "strictfp",
-                    "synchronized"
-            };
-            for (String keyword : keywords) {
-                normalized = normalized.replaceAll("\\b" + keyword + "(?=[A-Za-z_])", keyword + " ");
-            }
-        }
-        normalized = normalized.replaceAll("(?<=[a-zA-Z_])\\(", " (");
-        normalized = normalized.replaceAll("\\)(?=[A-Za-z_])", ") ");
-        normalized = normalized.replaceAll("(?<=[a-zA-Z_])\\{", " {");
-        normalized = normalized.replaceAll("\\}(?=[A-Za-z_])", "} ");
-        normalized = normalized.replaceAll("(?<=[^\\s])([;])", "$1 ");
-        normalized = normalized.replaceAll("[\\t\\x0B\\f\\r ]+", " ");
-        return unmaskStringLiterals(normalized, masked.literals);
+        return NORMALIZERS.get().normalizeSnippet(snippet, aggressive);
     }
 
     private static String wrapAsMember(String snippet) {
@@ -362,78 +622,6 @@ public class JsonDotGenerator {
         return info != null && Boolean.TRUE.equals(info.present);
     }
 
-    private static class MaskedText {
-        final String text;
-        final List<String> literals;
-
-        MaskedText(String text, List<String> literals) {
-            this.text = text;
-            this.literals = literals;
-        }
-    }
-
-    private static MaskedText maskStringLiterals(String input) {
-        List<String> literals = new ArrayList<String>();
-        StringBuilder sb = new StringBuilder();
-        boolean inString = false;
-        boolean inChar = false;
-        boolean escaped = false;
-        StringBuilder current = new StringBuilder();
-
-        for (int i = 0; i < input.length(); i++) {
-            char c = input.charAt(i);
-            if (inString || inChar) {
-                current.append(c);
-                if (escaped) {
-                    escaped = false;
-                    continue;
-                }
-                if (c == '\\') {
-                    escaped = true;
-                } else if (inString && c == '"') {
-                    inString = false;
-                } else if (inChar && c == '\'') {
-                    inChar = false;
-                }
-                if (!inString && !inChar) {
-                    String token = "__STR" + literals.size() + "__";
-                    literals.add(current.toString());
-                    sb.append(token);
-                    current.setLength(0);
-                }
-                continue;
-            }
-
-            if (c == '"') {
-                inString = true;
-                current.append(c);
-                continue;
-            }
-            if (c == '\'') {
-                inChar = true;
-                current.append(c);
-                continue;
-            }
-            sb.append(c);
-        }
-
-        if (current.length() > 0) {
-            String token = "__STR" + literals.size() + "__";
-            literals.add(current.toString());
-            sb.append(token);
-        }
-
-        return new MaskedText(sb.toString(), literals);
-    }
-
-    private static String unmaskStringLiterals(String input, List<String> literals) {
-        String result = input;
-        for (int i = 0; i < literals.size(); i++) {
-            result = result.replace("__STR" + i + "__", literals.get(i));
-        }
-        return result;
-    }
-
     private static String applySuffix(String baseName, int count) {
         if (count <= 1) {
             return baseName;
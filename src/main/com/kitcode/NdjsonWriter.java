@@ -0,0 +1,215 @@
+package com.kitcode;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes one graph as a single JSON Lines record:
+ *
+ * <pre>
+ * {"source":"a/Foo.java","header":{"json_index":7,...},
+ *  "nodes":[[rule,startLine,endLine],...],"edge_index":[[parents...],[children...]]}
+ * </pre>
+ *
+ * Header fields come from the "key=value" pairs of the generator header;
+ * integer values and boolean lists such as y=[true, false] are emitted as JSON
+ * numbers and arrays, everything else as strings. Records are streamed
+ * straight into the output buffer without building a JSON tree.
+ * An instance serves one borrower at a time and then goes back to
+ * ASTGenerator's writer pool.
+ */
+final class NdjsonWriter extends Utf8TextWriter {
+
+    void write(OutputStream out, String sourceName, NodeTable nodes, String header) throws IOException {
+        begin(out);
+        append("{\"source\":");
+        if (sourceName == null) {
+            append("null");
+        } else {
+            appendString(sourceName, 0, sourceName.length(), false);
+        }
+        append(",\"header\":{");
+        if (header != null) {
+            appendHeaderFields(header);
+        }
+        append("},\"nodes\":[");
+        for (int i = 0; i < nodes.size(); i++) {
+            if (i > 0) {
+                append(',');
+            }
+            append('[');
+            appendInt(nodes.rule(i));
+            append(',');
+            appendInt(nodes.startLine(i));
+            append(',');
+            appendInt(nodes.endLine(i));
+            append(']');
+        }
+        append("],\"edge_index\":[[");
+        appendEdgeEnds(nodes, true);
+        append("],[");
+        appendEdgeEnds(nodes, false);
+        append("]]}\n");
+        end();
+    }
+
+    private void appendEdgeEnds(NodeTable nodes, boolean parents) throws IOException {
+        boolean first = true;
+        for (int i = 1; i < nodes.size(); i++) {
+            int parent = nodes.parent(i);
+            if (parent < 0) {
+                continue;
+            }
+            if (!first) {
+                append(',');
+            }
+            appendInt(parents ? parent : i);
+            first = false;
+        }
+    }
+
+    private void appendHeaderFields(String header) throws IOException {
+        int keyStart = nextKey(header, 0);
+        boolean first = true;
+        while (keyStart >= 0) {
+            int eq = header.indexOf('=', keyStart);
+            int next = nextKey(header, eq + 1);
+            int valueEnd = next >= 0 ? next - 1 : header.length();
+            if (!first) {
+                append(',');
+            }
+            appendString(header, keyStart, eq, false);
+            append(':');
+            appendValue(header, eq + 1, valueEnd);
+            first = false;
+            keyStart = next;
+        }
+    }
+
+    /** Finds the next "name=" that starts the header or follows a space. */
+    private static int nextKey(String header, int from) {
+        for (int i = from; i < header.length(); i++) {
+            if (i > 0 && header.charAt(i - 1) != ' ') {
+                continue;
+            }
+            int j = i;
+            while (j < header.length() && isKeyChar(header.charAt(j))) {
+                j++;
+            }
+            if (j > i && j < header.length() && header.charAt(j) == '=') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isKeyChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    private void appendValue(String header, int start, int end) throws IOException {
+        if (isInteger(header, start, end)) {
+            for (int i = start; i < end; i++) {
+                append(header.charAt(i));
+            }
+        } else if (isBooleanList(header, start, end)) {
+            append('[');
+            boolean first = true;
+            for (int i = start + 1; i < end - 1; i++) {
+                char c = header.charAt(i);
+                if (c == 't' || c == 'f') {
+                    if (!first) {
+                        append(',');
+                    }
+                    append(c == 't' ? "true" : "false");
+                    i += c == 't' ? 3 : 4;
+                    first = false;
+                }
+            }
+            append(']');
+        } else {
+            appendString(header, start, end, true);
+        }
+    }
+
+    private static boolean isInteger(String s, int start, int end) {
+        int i = start < end && s.charAt(start) == '-' ? start + 1 : start;
+        if (i == end || end - i > 18) {
+            return false;
+        }
+        for (; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isBooleanList(String s, int start, int end) {
+        if (end - start < 2 || s.charAt(start) != '[' || s.charAt(end - 1) != ']') {
+            return false;
+        }
+        int i = start + 1;
+        while (i < end - 1) {
+            if (s.startsWith("true", i)) {
+                i += 4;
+            } else if (s.startsWith("false", i)) {
+                i += 5;
+            } else {
+                return false;
+            }
+            if (i < end - 1) {
+                if (s.charAt(i) != ',') {
+                    return false;
+                }
+                i++;
+                while (i < end - 1 && s.charAt(i) == ' ') {
+                    i++;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Appends s[start, end) as a JSON string. When headerEscaped is set, the
+     * backslash escapes the generators add to header values are undone first.
+     */
+    private void appendString(String s, int start, int end, boolean headerEscaped) throws IOException {
+        append('"');
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (headerEscaped && c == '\\' && i + 1 < end) {
+                c = s.charAt(++i);
+            }
+            switch (c) {
+                case '"':
+                    append("\\\"");
+                    break;
+                case '\\':
+                    append("\\\\");
+                    break;
+                case '\n':
+                    append("\\n");
+                    break;
+                case '\r':
+                    append("\\r");
+                    break;
+                case '\t':
+                    append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        append("\\u00");
+                        append(Character.forDigit(c >> 4, 16));
+                        append(Character.forDigit(c & 0xF, 16));
+                    } else {
+                        append(c);
+                    }
+                    break;
+            }
+        }
+        append('"');
+    }
+}
@@ -0,0 +1,107 @@
+package com.kitcode;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.antlr.v4.runtime.Token;
+
+/**
+ * Columnar view of the nodes emitted by one ASTGenerator traversal.
+ * Nodes are stored in pre-order; parent indices refer to earlier rows and the
+ * root has parent -1. Offsets are char offsets into the parsed source, with
+ * the end offset exclusive. Token columns index into the token list of the
+ * parse; a node whose stop token precedes its start token covers no tokens.
+ */
+public final class NodeTable {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final String source;
+    private final List<Token> tokens;
+
+    private int size;
+    private int[] rule = new int[INITIAL_CAPACITY];
+    private int[] parent = new int[INITIAL_CAPACITY];
+    private int[] startLine = new int[INITIAL_CAPACITY];
+    private int[] endLine = new int[INITIAL_CAPACITY];
+    private int[] startOffset = new int[INITIAL_CAPACITY];
+    private int[] endOffset = new int[INITIAL_CAPACITY];
+    private int[] startToken = new int[INITIAL_CAPACITY];
+    private int[] stopToken = new int[INITIAL_CAPACITY];
+
+    NodeTable(String source, List<Token> tokens) {
+        this.source = source;
+        this.tokens = tokens;
+    }
+
+    int add(int ruleIndex, int parentIndex, int start, int end, int fromOffset, int toOffset, int fromToken, int toToken) {
+        if (size == rule.length) {
+            grow();
+        }
+        rule[size] = ruleIndex;
+        parent[size] = parentIndex;
+        startLine[size] = start;
+        endLine[size] = end;
+        startOffset[size] = fromOffset;
+        endOffset[size] = toOffset;
+        startToken[size] = fromToken;
+        stopToken[size] = toToken;
+        return size++;
+    }
+
+    private void grow() {
+        int capacity = rule.length * 2;
+        rule = Arrays.copyOf(rule, capacity);
+        parent = Arrays.copyOf(parent, capacity);
+        startLine = Arrays.copyOf(startLine, capacity);
+        endLine = Arrays.copyOf(endLine, capacity);
+        startOffset = Arrays.copyOf(startOffset, capacity);
+        endOffset = Arrays.copyOf(endOffset, capacity);
+        startToken = Arrays.copyOf(startToken, capacity);
+        stopToken = Arrays.copyOf(stopToken, capacity);
+    }
+
+    public String source() {
+        return source;
+    }
+
+    public List<Token> tokens() {
+        return tokens;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int rule(int node) {
+        return rule[node];
+    }
+
+    public int parent(int node) {
+        return parent[node];
+    }
+
+    public int startLine(int node) {
+        return startLine[node];
+    }
+
+    public int endLine(int node) {
+        return endLine[node];
+    }
+
+    public int startOffset(int node) {
+        return startOffset[node];
+    }
+
+    public int endOffset(int node) {
+        return endOffset[node];
+    }
+
+    public int startToken(int node) {
+        return startToken[node];
+    }
+
+    public int stopToken(int node) {
+        return stopToken[node];
+    }
+}
@@ -0,0 +1,99 @@
+package com.kitcode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams little-endian int32 values into a NumPy .npy file whose shape is
+ * only known at the end. A fixed-size header is reserved up front and
+ * rewritten with the final shape by {@link #finish(int...)}; the data is
+ * never rewritten. The header length keeps the data 64-byte aligned, so the
+ * file can be opened with numpy.load(..., mmap_mode="r").
+ */
+final class NpyArrayWriter implements Closeable {
+
+    private static final byte[] MAGIC = { (byte) 0x93, 'N', 'U', 'M', 'P', 'Y', 1, 0 };
+    static final int HEADER_SIZE = 128;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+    private long count;
+
+    NpyArrayWriter(Path file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ);
+        channel.position(HEADER_SIZE);
+    }
+
+    Path file() {
+        return file;
+    }
+
+    long count() {
+        return count;
+    }
+
+    void add(int value) throws IOException {
+        if (!buffer.hasRemaining()) {
+            flushBuffer();
+        }
+        buffer.putInt(value);
+        count++;
+    }
+
+    /** Appends the raw int32 payload of another array, e.g. a second matrix row. */
+    void append(NpyArrayWriter other) throws IOException {
+        flushBuffer();
+        other.flushBuffer();
+        long size = other.count * Integer.BYTES;
+        long position = HEADER_SIZE;
+        while (position < HEADER_SIZE + size) {
+            position += other.channel.transferTo(position, HEADER_SIZE + size - position, channel);
+        }
+        count += other.count;
+    }
+
+    /** Writes the header for the given shape; the shape must cover all values written. */
+    void finish(int... shape) throws IOException {
+        flushBuffer();
+        StringBuilder dict = new StringBuilder("{'descr': '<i4', 'fortran_order': False, 'shape': (");
+        for (int i = 0; i < shape.length; i++) {
+            dict.append(i > 0 ? ", " : "").append(shape[i]);
+        }
+        dict.append(shape.length == 1 ? ",), }" : "), }");
+        int headerLength = HEADER_SIZE - MAGIC.length - 2;
+        while (dict.length() < headerLength - 1) {
+            dict.append(' ');
+        }
+        dict.append('\n');
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(MAGIC);
+        header.putShort((short) headerLength);
+        header.put(dict.toString().getBytes(StandardCharsets.US_ASCII));
+        header.flip();
+        channel.write(header, 0);
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flushBuffer();
+        channel.close();
+    }
+}
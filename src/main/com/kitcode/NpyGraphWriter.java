@@ -0,0 +1,136 @@
+package com.kitcode;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Exports all graphs of a run as NumPy arrays that Python can memory-map
+ * without parsing:
+ *
+ * <pre>
+ * node_types.npy    int32 [N]     grammar rule index of every node
+ * edge_index.npy    int32 [2, E]  parent row and child row, as global node indices
+ * node_offsets.npy  int32 [G + 1] first node of each graph, then N
+ * edge_offsets.npy  int32 [G + 1] first edge of each graph, then E
+ * graphs.tsv        source name and header of each graph, one line per graph
+ * </pre>
+ *
+ * Graphs are concatenated in the order they are added, so graph g owns nodes
+ * node_offsets[g] to node_offsets[g + 1]. In npz mode the four arrays are
+ * packed uncompressed into graphs.npz instead of being left as loose files.
+ */
+final class NpyGraphWriter implements GraphSink {
+
+    private static final String[] ARRAYS = { "node_types", "edge_index", "node_offsets", "edge_offsets" };
+
+    private final Path dir;
+    private final boolean npz;
+    private final NpyArrayWriter nodeTypes;
+    private final NpyArrayWriter parents;
+    private final NpyArrayWriter children;
+    private final NpyArrayWriter nodeOffsets;
+    private final NpyArrayWriter edgeOffsets;
+    private final BufferedWriter graphs;
+    private long nodeCount;
+    private long edgeCount;
+    private int graphCount;
+
+    NpyGraphWriter(Path dir, boolean npz) throws IOException {
+        this.dir = dir;
+        this.npz = npz;
+        Files.createDirectories(dir);
+        nodeTypes = new NpyArrayWriter(dir.resolve("node_types.npy"));
+        parents = new NpyArrayWriter(dir.resolve("edge_index.npy"));
+        children = new NpyArrayWriter(dir.resolve("edge_index.npy.children"));
+        nodeOffsets = new NpyArrayWriter(dir.resolve("node_offsets.npy"));
+        edgeOffsets = new NpyArrayWriter(dir.resolve("edge_offsets.npy"));
+        graphs = Files.newBufferedWriter(dir.resolve("graphs.tsv"), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public synchronized void add(String sourceName, NodeTable nodes, String header) throws IOException {
+        if (nodeCount + nodes.size() > Integer.MAX_VALUE) {
+            throw new IOException("Too many nodes for int32 node indices in " + dir);
+        }
+        int base = (int) nodeCount;
+        nodeOffsets.add(base);
+        edgeOffsets.add((int) edgeCount);
+        for (int i = 0; i < nodes.size(); i++) {
+            nodeTypes.add(nodes.rule(i));
+            int parent = nodes.parent(i);
+            if (parent >= 0) {
+                parents.add(base + parent);
+                children.add(base + i);
+                edgeCount++;
+            }
+        }
+        nodeCount += nodes.size();
+        graphCount++;
+
+        graphs.write(sourceName);
+        graphs.write('\t');
+        graphs.write(header == null ? "" : header);
+        graphs.write('\n');
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        nodeOffsets.add((int) nodeCount);
+        edgeOffsets.add((int) edgeCount);
+        nodeTypes.finish((int) nodeCount);
+        parents.append(children);
+        parents.finish(2, (int) edgeCount);
+        nodeOffsets.finish(graphCount + 1);
+        edgeOffsets.finish(graphCount + 1);
+
+        nodeTypes.close();
+        parents.close();
+        children.close();
+        nodeOffsets.close();
+        edgeOffsets.close();
+        graphs.close();
+        Files.delete(children.file());
+
+        if (npz) {
+            writeArchive(dir.resolve("graphs.npz"));
+        }
+    }
+
+    private void writeArchive(Path archive) throws IOException {
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(archive))) {
+            zip.setMethod(ZipOutputStream.STORED);
+            for (String name : ARRAYS) {
+                Path file = dir.resolve(name + ".npy");
+                ZipEntry entry = new ZipEntry(name + ".npy");
+                entry.setSize(Files.size(file));
+                entry.setCompressedSize(Files.size(file));
+                entry.setCrc(crc(file));
+                zip.putNextEntry(entry);
+                Files.copy(file, zip);
+                zip.closeEntry();
+            }
+        }
+        for (String name : ARRAYS) {
+            Files.delete(dir.resolve(name + ".npy"));
+        }
+    }
+
+    private static long crc(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, n);
+            }
+        }
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,82 @@
+package com.kitcode;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the fingerprint and size of every output a run has written, so
+ * the next run can skip writes whose bytes would not change. Entries live in
+ * .fingerprints.tsv in the output directory (.fingerprints-i-of-N.tsv for a
+ * shard): relative path, size (-1 when unknown,
+ * e.g. for compressed outputs) and hex fingerprint.
+ */
+final class OutputFingerprints {
+
+    static final String FILE_PREFIX = ".fingerprints";
+
+    private final Path file;
+    private final Map<String, long[]> entries = new ConcurrentHashMap<String, long[]>();
+
+    private OutputFingerprints(Path file) {
+        this.file = file;
+    }
+
+    static OutputFingerprints load(Path outputDir, ShardSpec shard) throws IOException {
+        OutputFingerprints fingerprints = new OutputFingerprints(outputDir.resolve(FILE_PREFIX + shard.suffix() + ".tsv"));
+        if (!Files.exists(fingerprints.file)) {
+            return fingerprints;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(fingerprints.file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length != 3) {
+                    continue;
+                }
+                try {
+                    fingerprints.entries.put(fields[0], new long[] { Long.parseLong(fields[1]), Fingerprint.fromHex(fields[2]) });
+                } catch (NumberFormatException e) {
+                    // A damaged line only costs one rewrite.
+                }
+            }
+        }
+        return fingerprints;
+    }
+
+    /** True when target still holds exactly the bytes recorded for this fingerprint. */
+    boolean unchanged(String key, long fingerprint, Path target) throws IOException {
+        long[] entry = entries.get(key);
+        if (entry == null || entry[1] != fingerprint || !Files.exists(target)) {
+            return false;
+        }
+        return entry[0] < 0 || Files.size(target) == entry[0];
+    }
+
+    void record(String key, long fingerprint, long size) {
+        entries.put(key, new long[] { size, fingerprint });
+    }
+
+    void save() throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, long[]> entry : new TreeMap<String, long[]>(entries).entrySet()) {
+                writer.write(entry.getKey());
+                writer.write('\t');
+                writer.write(Long.toString(entry.getValue()[0]));
+                writer.write('\t');
+                writer.write(Fingerprint.toHex(entry.getValue()[1]));
+                writer.write('\n');
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
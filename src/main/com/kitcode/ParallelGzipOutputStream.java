@@ -0,0 +1,100 @@
+package com.kitcode;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Gzip output stream that cuts its input into fixed-size blocks, compresses
+ * them in parallel on a {@link GzipBlockCompressor} and writes the resulting
+ * gzip members in their original order. The writing thread only copies bytes
+ * into the current block; finished members are written opportunistically
+ * whenever a new block is handed off. Not thread-safe.
+ */
+final class ParallelGzipOutputStream extends OutputStream {
+
+    private final OutputStream out;
+    private final GzipBlockCompressor compressor;
+    private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+    private byte[] block;
+    private int count;
+
+    ParallelGzipOutputStream(OutputStream out, GzipBlockCompressor compressor) {
+        this.out = out;
+        this.compressor = compressor;
+        this.block = new byte[compressor.blockSize()];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == block.length) {
+            submitBlock();
+        }
+        block[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (count == block.length) {
+                submitBlock();
+            }
+            int n = Math.min(len, block.length - count);
+            System.arraycopy(b, off, block, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /** Ends the current block early and writes every member compressed so far. */
+    @Override
+    public void flush() throws IOException {
+        submitBlock();
+        writeCompleted(true);
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            submitBlock();
+            writeCompleted(true);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void submitBlock() throws IOException {
+        if (count == 0) {
+            return;
+        }
+        if (pending.size() >= compressor.capacity()) {
+            writeNext();
+        }
+        pending.add(compressor.submit(block, count));
+        block = new byte[block.length];
+        count = 0;
+        writeCompleted(false);
+    }
+
+    private void writeCompleted(boolean all) throws IOException {
+        while (!pending.isEmpty() && (all || pending.peek().isDone())) {
+            writeNext();
+        }
+    }
+
+    private void writeNext() throws IOException {
+        try {
+            out.write(pending.poll().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a compressed block");
+        } catch (ExecutionException e) {
+            throw new IOException("Block compression failed", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.kitcode;
+
+import antlr.Java8Parser;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Grammar rule names written once per run, so per-node output can carry the
+ * integer rule index alone. The file starts with a comment line holding the
+ * grammar fingerprint and rule count, followed by one "index\tname" line per
+ * rule. The fingerprint covers the rule names and the serialized ATN, so
+ * outputs from a regenerated grammar can be told apart.
+ */
+final class RuleVocabulary {
+
+    static final String FILE_NAME = "rules.tsv";
+
+    private static final long GRAMMAR_FINGERPRINT = computeFingerprint();
+
+    private RuleVocabulary() {
+    }
+
+    static void write(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        try (BufferedWriter writer = Files.newBufferedWriter(dir.resolve(FILE_NAME), StandardCharsets.UTF_8)) {
+            writer.write("# grammar=Java8 fingerprint=" + Fingerprint.toHex(GRAMMAR_FINGERPRINT)
+                    + " rules=" + Java8Parser.ruleNames.length + "\n");
+            for (int i = 0; i < Java8Parser.ruleNames.length; i++) {
+                writer.write(Integer.toString(i));
+                writer.write('\t');
+                writer.write(Java8Parser.ruleNames[i]);
+                writer.write('\n');
+            }
+        }
+    }
+
+    /**
+     * Reads the rule names from a vocabulary file, failing when it was written
+     * for a different grammar than the one on the classpath.
+     */
+    static String[] read(Path dir) throws IOException {
+        Path file = dir.resolve(FILE_NAME);
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String first = reader.readLine();
+            String expected = "fingerprint=" + Fingerprint.toHex(GRAMMAR_FINGERPRINT) + " ";
+            if (first == null || !first.startsWith("#") || !first.contains(expected)) {
+                throw new IOException("Rule vocabulary " + file + " does not match the current grammar");
+            }
+            String[] names = new String[Java8Parser.ruleNames.length];
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (tab < 0) {
+                    continue;
+                }
+                names[Integer.parseInt(line.substring(0, tab))] = line.substring(tab + 1);
+            }
+            return names;
+        }
+    }
+
+    private static long computeFingerprint() {
+        StringBuilder grammar = new StringBuilder();
+        for (String name : Java8Parser.ruleNames) {
+            grammar.append(name).append('\n');
+        }
+        grammar.append(Java8Parser._serializedATN);
+        return Fingerprint.of(grammar.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,239 @@
+package com.kitcode;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent record of the inputs a run has processed, so later runs only
+ * handle new or changed files and can clean up after removed ones.
+ *
+ * <p>.manifest.tsv in the output directory (.manifest-i-of-N.tsv for a
+ * shard) starts with the run options and
+ * holds one line per input: relative path, size, mtime in milliseconds, hex
+ * content hash, output path relative to the output directory ("-" for
+ * none) and status. While a run is in progress every finished input is also
+ * appended to .manifest.journal, so a run that dies halfway resumes where it
+ * stopped; the journal is folded into the manifest on open and on close.
+ * A manifest written with different options is ignored.
+ */
+final class RunManifest {
+
+    static final String FILE_PREFIX = ".manifest";
+
+    enum Status {
+        /** The output was written. */
+        OK,
+        /** The input has syntax errors; it is not retried until it changes. */
+        ERROR,
+        /** Reading or writing failed; the input is retried on the next run. */
+        FAILED,
+        /** Journal marker for an input that no longer exists. */
+        REMOVED
+    }
+
+    private static final class Entry {
+
+        final long size;
+        final long mtime;
+        final long hash;
+        final String output;
+        final Status status;
+
+        Entry(long size, long mtime, long hash, String output, Status status) {
+            this.size = size;
+            this.mtime = mtime;
+            this.hash = hash;
+            this.output = output;
+            this.status = status;
+        }
+    }
+
+    private final Path outputDir;
+    private final Path file;
+    private final Path journalFile;
+    private final String options;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final Map<String, long[]> stats = new ConcurrentHashMap<String, long[]>();
+    private final Set<String> seen = ConcurrentHashMap.newKeySet();
+    private BufferedWriter journal;
+
+    private RunManifest(Path outputDir, String suffix, String options) {
+        this.outputDir = outputDir.toAbsolutePath();
+        this.file = this.outputDir.resolve(FILE_PREFIX + suffix + ".tsv");
+        this.journalFile = this.outputDir.resolve(FILE_PREFIX + suffix + ".journal");
+        this.options = options;
+    }
+
+    /**
+     * Loads the manifest and any journal left by an interrupted run. With
+     * full set, previous entries are discarded so every input is processed.
+     */
+    static RunManifest open(Path outputDir, ShardSpec shard, String options, boolean full) throws IOException {
+        RunManifest manifest = new RunManifest(outputDir, shard.suffix(), options);
+        if (!full) {
+            manifest.load(manifest.file);
+            manifest.load(manifest.journalFile);
+        }
+        manifest.save();
+        manifest.startJournal();
+        return manifest;
+    }
+
+    /** Starts a full pass over the inputs; {@link #removeMissing()} then covers inputs not seen since. */
+    void beginScan() {
+        seen.clear();
+    }
+
+    /**
+     * Notes that input exists with the given size and mtime, and returns true
+     * when it was processed before with exactly these attributes and its
+     * output is still there.
+     */
+    boolean unchanged(String input, long size, long mtime) {
+        seen.add(input);
+        stats.put(input, new long[] { size, mtime });
+        Entry entry = entries.get(input);
+        return entry != null && entry.size == size && entry.mtime == mtime && upToDate(entry);
+    }
+
+    /**
+     * Returns true when the content hash of a file whose attributes changed
+     * still matches the previous run; the new attributes are recorded.
+     */
+    boolean sameContent(String input, long hash) throws IOException {
+        Entry entry = entries.get(input);
+        if (entry == null || entry.hash != hash || !upToDate(entry)) {
+            return false;
+        }
+        record(input, hash, entry.output == null ? null : outputDir.resolve(entry.output), entry.status);
+        return true;
+    }
+
+    void record(String input, long hash, Path output, Status status) throws IOException {
+        long[] stat = stats.getOrDefault(input, new long[] { -1, -1 });
+        String relative = output == null ? null : outputDir.relativize(output.toAbsolutePath()).toString().replace('\\', '/');
+        Entry entry = new Entry(stat[0], stat[1], hash, relative, status);
+        entries.put(input, entry);
+        journal(input, entry);
+    }
+
+    /**
+     * Deletes the outputs of every input that was not seen in this run and
+     * drops it from the manifest. Returns the number of inputs removed.
+     */
+    int removeMissing() throws IOException {
+        int removed = 0;
+        for (String input : entries.keySet()) {
+            if (!seen.contains(input) && remove(input)) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /** Deletes the output of a removed input and drops it; false when it was not recorded. */
+    boolean remove(String input) throws IOException {
+        seen.remove(input);
+        Entry entry = entries.remove(input);
+        if (entry == null) {
+            return false;
+        }
+        if (entry.output != null) {
+            Files.deleteIfExists(outputDir.resolve(entry.output));
+        }
+        journal(input, new Entry(-1, -1, 0, null, Status.REMOVED));
+        return true;
+    }
+
+    /** Folds the journal into the manifest and keeps journaling, for long-running watch mode. */
+    synchronized void checkpoint() throws IOException {
+        journal.close();
+        save();
+        startJournal();
+    }
+
+    /** Folds the journal into the manifest. */
+    synchronized void close() throws IOException {
+        journal.close();
+        save();
+        Files.deleteIfExists(journalFile);
+    }
+
+    private void startJournal() throws IOException {
+        journal = Files.newBufferedWriter(journalFile, StandardCharsets.UTF_8);
+        journal.write(optionsLine());
+        journal.flush();
+    }
+
+    private boolean upToDate(Entry entry) {
+        if (entry.status == Status.FAILED) {
+            return false;
+        }
+        return entry.output == null || Files.exists(outputDir.resolve(entry.output));
+    }
+
+    private synchronized void journal(String input, Entry entry) throws IOException {
+        journal.write(line(input, entry));
+        journal.flush();
+    }
+
+    private void load(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String first = reader.readLine();
+            if (first == null || !(first + "\n").equals(optionsLine())) {
+                return;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length != 6) {
+                    continue;
+                }
+                try {
+                    Status status = Status.valueOf(fields[5]);
+                    if (status == Status.REMOVED) {
+                        entries.remove(fields[0]);
+                        continue;
+                    }
+                    entries.put(fields[0], new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                            Fingerprint.fromHex(fields[3]), "-".equals(fields[4]) ? null : fields[4], status));
+                } catch (IllegalArgumentException e) {
+                    // A damaged line, e.g. the torn tail of a journal, only costs one reprocess.
+                }
+            }
+        }
+    }
+
+    private void save() throws IOException {
+        Files.createDirectories(outputDir);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            writer.write(optionsLine());
+            for (Map.Entry<String, Entry> e : new TreeMap<String, Entry>(entries).entrySet()) {
+                writer.write(line(e.getKey(), e.getValue()));
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private String optionsLine() {
+        return "# options=" + options + "\n";
+    }
+
+    private static String line(String input, Entry entry) {
+        return input + '\t' + entry.size + '\t' + entry.mtime + '\t' + Fingerprint.toHex(entry.hash) + '\t'
+                + (entry.output == null ? "-" : entry.output) + '\t' + entry.status + '\n';
+    }
+}
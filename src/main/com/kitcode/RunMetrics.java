@@ -0,0 +1,273 @@
+package com.kitcode;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throughput and latency metrics of a directory run: files, tokens and bytes
+ * per second, one latency histogram per stage and failure counts by
+ * category. All methods are thread-safe. A summary line can be printed
+ * periodically, and {@link #save(Path)} writes everything as JSON.
+ */
+final class RunMetrics {
+
+    enum Stage {
+        READ, LEX, PARSE, EXTRACT, WRITE
+    }
+
+    private final long startNanos = System.nanoTime();
+    private final LongAdder files = new LongAdder();
+    private final LongAdder tokens = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final Histogram[] stages = new Histogram[Stage.values().length];
+    private final Map<String, LongAdder> failures = new ConcurrentHashMap<String, LongAdder>();
+    private ScheduledExecutorService reporter;
+
+    RunMetrics() {
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new Histogram();
+        }
+    }
+
+    void record(Stage stage, long nanos) {
+        stages[stage.ordinal()].record(nanos);
+    }
+
+    void fileRead(long size) {
+        files.increment();
+        bytes.add(size);
+    }
+
+    void addTokens(int count) {
+        tokens.add(count);
+    }
+
+    void failure(String category) {
+        failures.computeIfAbsent(category, key -> new LongAdder()).increment();
+    }
+
+    long failures(String category) {
+        LongAdder count = failures.get(category);
+        return count != null ? count.sum() : 0;
+    }
+
+    /** Starts timing the CPU stages of one file. */
+    Timer startTimer() {
+        return new Timer();
+    }
+
+    /** Prints a summary line every interval until {@link #stopReporting()}. */
+    void startReporting(long intervalSeconds) {
+        if (intervalSeconds <= 0) {
+            return;
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> System.out.println(summary()), intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    void stopReporting() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+    }
+
+    String summary() {
+        double seconds = elapsedSeconds();
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "[metrics] %d files in %.0fs: %.1f files/s, %.0f tokens/s, %.2f MB/s",
+                files.sum(), seconds, files.sum() / seconds, tokens.sum() / seconds, bytes.sum() / seconds / 1e6));
+        for (Stage stage : Stage.values()) {
+            Histogram histogram = stages[stage.ordinal()];
+            if (histogram.count() > 0) {
+                sb.append(String.format(Locale.ROOT, " | %s p50 %s p99 %s", stage.name().toLowerCase(Locale.ROOT),
+                        millis(histogram.percentile(0.50)), millis(histogram.percentile(0.99))));
+            }
+        }
+        long failed = 0;
+        for (LongAdder count : failures.values()) {
+            failed += count.sum();
+        }
+        if (failed > 0) {
+            sb.append(" | ").append(failed).append(" failures");
+        }
+        return sb.toString();
+    }
+
+    /** Writes the metrics as a JSON object; times are in milliseconds. */
+    void save(Path file) throws IOException {
+        double seconds = elapsedSeconds();
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            writer.write(String.format(Locale.ROOT, "{\n  \"elapsed_s\": %.3f,\n", seconds));
+            writer.write(String.format(Locale.ROOT, "  \"files\": %d,\n  \"tokens\": %d,\n  \"bytes\": %d,\n",
+                    files.sum(), tokens.sum(), bytes.sum()));
+            writer.write(String.format(Locale.ROOT, "  \"files_per_s\": %.3f,\n  \"tokens_per_s\": %.1f,\n  \"bytes_per_s\": %.1f,\n",
+                    files.sum() / seconds, tokens.sum() / seconds, bytes.sum() / seconds));
+            writer.write("  \"stages\": {");
+            String separator = "\n";
+            for (Stage stage : Stage.values()) {
+                Histogram histogram = stages[stage.ordinal()];
+                writer.write(separator);
+                writer.write(String.format(Locale.ROOT,
+                        "    \"%s\": {\"count\": %d, \"mean_ms\": %.3f, \"p50_ms\": %.3f, \"p95_ms\": %.3f, \"p99_ms\": %.3f, \"max_ms\": %.3f}",
+                        stage.name().toLowerCase(Locale.ROOT), histogram.count(), histogram.mean() / 1e6,
+                        histogram.percentile(0.50) / 1e6, histogram.percentile(0.95) / 1e6,
+                        histogram.percentile(0.99) / 1e6, histogram.max() / 1e6));
+                separator = ",\n";
+            }
+            writer.write("\n  },\n  \"failures\": {");
+            separator = "";
+            for (Map.Entry<String, LongAdder> entry : new TreeMap<String, LongAdder>(failures).entrySet()) {
+                writer.write(separator);
+                writer.write("\"" + entry.getKey() + "\": " + entry.getValue().sum());
+                separator = ", ";
+            }
+            writer.write("}\n}\n");
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private double elapsedSeconds() {
+        return Math.max(1e-3, (System.nanoTime() - startNanos) / 1e9);
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.1fms", nanos / 1e6);
+    }
+
+    /**
+     * Lap timer for the stages of one file on one thread. Each lap adds the
+     * time since the previous lap to a stage, so a stage may be entered more
+     * than once; {@link #commit()} records every timed stage once.
+     */
+    final class Timer {
+
+        private final long[] nanos = new long[stages.length];
+        private long last = System.nanoTime();
+        private int tokenCount;
+
+        void lap(Stage stage) {
+            long now = System.nanoTime();
+            nanos[stage.ordinal()] += now - last;
+            last = now;
+        }
+
+        void tokens(int count) {
+            tokenCount += count;
+        }
+
+        /** Charges time measured elsewhere, e.g. in a worker process, to a stage. */
+        void add(Stage stage, long elapsedNanos) {
+            nanos[stage.ordinal()] += elapsedNanos;
+        }
+
+        long elapsed(Stage stage) {
+            return nanos[stage.ordinal()];
+        }
+
+        int tokenCount() {
+            return tokenCount;
+        }
+
+        void commit() {
+            addTokens(tokenCount);
+            for (Stage stage : Stage.values()) {
+                if (nanos[stage.ordinal()] > 0) {
+                    record(stage, nanos[stage.ordinal()]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Log-linear latency histogram: 16 buckets per power of two, so
+     * percentiles are within about 6% of the recorded values.
+     */
+    static final class Histogram {
+
+        private static final int SUB_BITS = 4;
+        private static final int SUB_COUNT = 1 << SUB_BITS;
+
+        private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BITS) * SUB_COUNT);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long value) {
+            value = Math.max(0, value);
+            counts.incrementAndGet(bucket(value));
+            count.increment();
+            sum.add(value);
+            max.accumulateAndGet(value, Math::max);
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        long max() {
+            return max.get();
+        }
+
+        double mean() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) sum.sum() / n;
+        }
+
+        /** Upper bound of the bucket holding the given quantile, capped at the maximum. */
+        long percentile(double quantile) {
+            long n = count.sum();
+            if (n == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * n);
+            long seen = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        private static int bucket(long value) {
+            if (value < SUB_COUNT) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+            return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+        }
+
+        private static long upperBound(int bucket) {
+            if (bucket < SUB_COUNT) {
+                return bucket;
+            }
+            int exponent = bucket / SUB_COUNT + SUB_BITS - 1;
+            int sub = bucket % SUB_COUNT;
+            long lower = (long) (SUB_COUNT + sub) << (exponent - SUB_BITS);
+            return lower + (1L << (exponent - SUB_BITS)) - 1;
+        }
+    }
+}
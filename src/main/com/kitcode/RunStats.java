@@ -0,0 +1,69 @@
+package com.kitcode;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Named counters of a run, saved as a ".stats" TSV of name and value so the
+ * statistics of several shards can be summed by {@link ShardMerge}.
+ */
+final class RunStats {
+
+    static final String FILE_PREFIX = ".stats";
+
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<String, LongAdder>();
+
+    void increment(String name) {
+        add(name, 1);
+    }
+
+    void add(String name, long delta) {
+        counters.computeIfAbsent(name, key -> new LongAdder()).add(delta);
+    }
+
+    long get(String name) {
+        LongAdder counter = counters.get(name);
+        return counter != null ? counter.sum() : 0;
+    }
+
+    void merge(RunStats other) {
+        for (Map.Entry<String, LongAdder> entry : other.counters.entrySet()) {
+            add(entry.getKey(), entry.getValue().sum());
+        }
+    }
+
+    void save(Path dir, String suffix) throws IOException {
+        Files.createDirectories(dir);
+        Path file = dir.resolve(FILE_PREFIX + suffix + ".tsv");
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, LongAdder> entry : new TreeMap<String, LongAdder>(counters).entrySet()) {
+                writer.write(entry.getKey() + "\t" + entry.getValue().sum() + "\n");
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    static RunStats load(Path file) throws IOException {
+        RunStats stats = new RunStats();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (tab > 0) {
+                    stats.add(line.substring(0, tab), Long.parseLong(line.substring(tab + 1)));
+                }
+            }
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,126 @@
+package com.kitcode;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Combines the bookkeeping files that the shards of a --shard i/N run left in
+ * a shared output directory: the manifests and output fingerprints become
+ * .manifest.tsv and .fingerprints.tsv, as if one unsharded run had written
+ * them, and the statistics are summed into .stats.tsv. JsonDotGenerator
+ * --dedup mappings become canonical.tsv. Per-file outputs need no merging
+ * since every input belongs to exactly one shard.
+ *
+ * <p>Usage: ShardMerge &lt;output dir&gt; &lt;shard count&gt;
+ */
+public class ShardMerge {
+
+    public static void main(String[] args) throws IOException {
+        CommandLine cl = CommandLine.parse(args);
+        Path dir = Paths.get(cl.positional(0, "graphs/data"));
+        int count = Integer.parseInt(cl.positional(1, "1"));
+
+        try {
+            boolean merged = false;
+            merged |= mergeTables(dir, RunManifest.FILE_PREFIX, count, true);
+            merged |= mergeTables(dir, OutputFingerprints.FILE_PREFIX, count, false);
+            merged |= mergeTables(dir, JsonDotGenerator.CANONICAL_PREFIX, count, true);
+            merged |= mergeStats(dir, count);
+            if (!merged) {
+                System.err.println("No shard files for " + count + " shards in " + dir);
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to merge shards in " + dir + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Merges TSV tables keyed by their first column. With a header, every
+     * shard must have been written with the same options line.
+     */
+    private static boolean mergeTables(Path dir, String prefix, int count, boolean header) throws IOException {
+        if (!anyShard(dir, prefix, count)) {
+            return false;
+        }
+        String options = null;
+        Map<String, String> rows = new TreeMap<String, String>();
+        for (int i = 0; i < count; i++) {
+            String suffix = ShardSpec.suffix(i, count);
+            if (Files.exists(dir.resolve(prefix + suffix + ".journal"))) {
+                throw new IOException("shard " + i + " did not finish; rerun it before merging");
+            }
+            try (BufferedReader reader = Files.newBufferedReader(shardFile(dir, prefix, i, count), StandardCharsets.UTF_8)) {
+                String line = header ? reader.readLine() : null;
+                if (header) {
+                    if (options != null && !options.equals(line)) {
+                        throw new IOException("shard " + i + " was run with different options: " + line);
+                    }
+                    options = line;
+                }
+                while ((line = reader.readLine()) != null) {
+                    int tab = line.indexOf('\t');
+                    String key = tab >= 0 ? line.substring(0, tab) : line;
+                    if (rows.put(key, line) != null) {
+                        throw new IOException(key + " appears in more than one shard");
+                    }
+                }
+            }
+        }
+        Path target = dir.resolve(prefix + ".tsv");
+        Path tmp = dir.resolve(prefix + ".tsv.tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            if (options != null) {
+                writer.write(options + "\n");
+            }
+            for (String row : rows.values()) {
+                writer.write(row + "\n");
+            }
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        System.out.println("Merged " + rows.size() + " entries into " + target);
+        return true;
+    }
+
+    private static boolean mergeStats(Path dir, int count) throws IOException {
+        if (!anyShard(dir, RunStats.FILE_PREFIX, count)) {
+            return false;
+        }
+        RunStats total = new RunStats();
+        for (int i = 0; i < count; i++) {
+            total.merge(RunStats.load(shardFile(dir, RunStats.FILE_PREFIX, i, count)));
+        }
+        total.save(dir, "");
+        System.out.println("Merged statistics into " + dir.resolve(RunStats.FILE_PREFIX + ".tsv"));
+        return true;
+    }
+
+    /** True when the shards wrote this kind of file; then every shard must have. */
+    private static boolean anyShard(Path dir, String prefix, int count) throws IOException {
+        Path missing = null;
+        int present = 0;
+        for (int i = 0; i < count; i++) {
+            Path file = shardFile(dir, prefix, i, count);
+            if (Files.exists(file)) {
+                present++;
+            } else if (missing == null) {
+                missing = file;
+            }
+        }
+        if (present > 0 && missing != null) {
+            throw new IOException("missing " + missing.getFileName());
+        }
+        return present > 0;
+    }
+
+    private static Path shardFile(Path dir, String prefix, int index, int count) {
+        return dir.resolve(prefix + ShardSpec.suffix(index, count) + ".tsv");
+    }
+}
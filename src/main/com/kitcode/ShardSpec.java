@@ -0,0 +1,75 @@
+package com.kitcode;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Deterministic partition of a corpus for --shard i/N. An input belongs to
+ * shard i when the XXH64 hash of its key, the path relative to the input
+ * directory or the JSON index, is i modulo N. The assignment only depends
+ * on the key, so independent processes or machines agree on it and their
+ * outputs never overlap. Shards are numbered from 0.
+ */
+final class ShardSpec {
+
+    static final ShardSpec ALL = new ShardSpec(0, 1);
+
+    private final int index;
+    private final int count;
+
+    private ShardSpec(int index, int count) {
+        this.index = index;
+        this.count = count;
+    }
+
+    /** Parses "i/N"; null selects every input. */
+    static ShardSpec parse(String spec) {
+        if (spec == null) {
+            return ALL;
+        }
+        int slash = spec.indexOf('/');
+        try {
+            if (slash > 0) {
+                int index = Integer.parseInt(spec.substring(0, slash).trim());
+                int count = Integer.parseInt(spec.substring(slash + 1).trim());
+                if (count > 0 && index >= 0 && index < count) {
+                    return new ShardSpec(index, count);
+                }
+            }
+        } catch (NumberFormatException e) {
+            // Reported below.
+        }
+        throw new IllegalArgumentException("Option --shard expects i/N with 0 <= i < N, got: " + spec);
+    }
+
+    int index() {
+        return index;
+    }
+
+    int count() {
+        return count;
+    }
+
+    boolean contains(String key) {
+        if (count == 1) {
+            return true;
+        }
+        long hash = Fingerprint.of(key.getBytes(StandardCharsets.UTF_8));
+        return Long.remainderUnsigned(hash, count) == index;
+    }
+
+    boolean contains(long jsonIndex) {
+        return contains(Long.toString(jsonIndex));
+    }
+
+    /**
+     * Suffix for per-shard bookkeeping files, e.g. ".manifest-2-of-8.tsv";
+     * empty when the run is not sharded.
+     */
+    String suffix() {
+        return count == 1 ? "" : suffix(index, count);
+    }
+
+    static String suffix(int index, int count) {
+        return "-" + index + "-of-" + count;
+    }
+}
@@ -0,0 +1,265 @@
+package com.kitcode;
+
+import java.util.Arrays;
+
+/**
+ * Single-pass version of the spacing rules JsonDotGenerator applies to
+ * masked snippets, producing exactly what this replaceAll chain produces:
+ *
+ * <pre>
+ * (aggressive only, once per keyword in KEYWORDS order)
+ *   \bkeyword(?=[A-Za-z_])   -&gt; "keyword "
+ * (?&lt;=[a-zA-Z_])\(           -&gt; " ("
+ * \)(?=[A-Za-z_])           -&gt; ") "
+ * (?&lt;=[a-zA-Z_])\{           -&gt; " {"
+ * \}(?=[A-Za-z_])           -&gt; "} "
+ * (?&lt;=[^\s])([;])            -&gt; "; "
+ * [\t\x0B\f\r ]+            -&gt; " "
+ * </pre>
+ *
+ * The spaces inserted by one rule never sit next to a character another
+ * rule looks at, so every rule can decide on the original neighbours, and
+ * runs of whitespace are collapsed as the output is appended. The one
+ * interaction is between keyword passes: the space a pass inserts after its
+ * keyword is a word boundary for the passes that run later, so a glued run
+ * such as "publicstaticfinalint" is split as a chain of keywords in strictly
+ * increasing KEYWORDS order, the way the sequential passes split it.
+ *
+ * <p>{@link #normalizeSnippet} first masks string and char literals as
+ * __STRn__ placeholders, so the rules see an identifier instead of their
+ * contents, and records where each literal and placeholder is. The
+ * placeholders pass through the rules unchanged, so the scan notes where
+ * each one lands in the output, and the literals are put back in one
+ * linear pass by position. Text in the snippet that merely looks like a
+ * placeholder is left alone.
+ *
+ * <p>Instances reuse their buffers and are not thread-safe.
+ */
+final class SnippetNormalizer {
+
+    static final String[] KEYWORDS = {
+            "public", "protected", "private", "static", "final", "abstract", "native", "strictfp",
+            "synchronized"
+    };
+
+    private final StringBuilder out = new StringBuilder(1024);
+    private final StringBuilder masked = new StringBuilder(1024);
+    private final StringBuilder result = new StringBuilder(1024);
+    /** Per literal: start and end in the snippet, placeholder offset in the masked text (then in out), placeholder length. */
+    private int[] literals = new int[4 * 16];
+    private int literalCount;
+
+    /** Normalizes a raw snippet, keeping the contents of its string and char literals. */
+    String normalizeSnippet(String snippet, boolean aggressive) {
+        mask(snippet);
+        run(masked.toString(), aggressive, literalCount);
+        if (literalCount == 0) {
+            return out.toString();
+        }
+        result.setLength(0);
+        int copied = 0;
+        for (int k = 0; k < literalCount; k++) {
+            int at = literals[4 * k + 2];
+            result.append(out, copied, at).append(snippet, literals[4 * k], literals[4 * k + 1]);
+            copied = at + literals[4 * k + 3];
+        }
+        return result.append(out, copied, out.length()).toString();
+    }
+
+    /** Applies the spacing rules to already masked text. */
+    String normalize(String text, boolean aggressive) {
+        run(text, aggressive, 0);
+        return out.toString();
+    }
+
+    /**
+     * Scans text into out. The placeholder offsets of the first marks
+     * literals are rewritten to where the placeholders land in out.
+     */
+    private void run(String text, boolean aggressive, int marks) {
+        out.setLength(0);
+        int length = text.length();
+        int mark = 0;
+        int i = 0;
+        while (i < length) {
+            if (mark < marks && literals[4 * mark + 2] == i) {
+                literals[4 * mark + 2] = out.length();
+                mark++;
+            }
+            char c = text.charAt(i);
+            if (aggressive && c >= 'a' && c <= 's' && !wordBefore(text, i)) {
+                int end = keywordChain(text, i);
+                if (end > i) {
+                    i = end;
+                    continue;
+                }
+            }
+            switch (c) {
+                case '(':
+                case '{':
+                    if (i > 0 && isIdentifierLetter(text.charAt(i - 1))) {
+                        appendSpace();
+                    }
+                    out.append(c);
+                    break;
+                case ')':
+                case '}':
+                    out.append(c);
+                    if (i + 1 < length && isIdentifierLetter(text.charAt(i + 1))) {
+                        appendSpace();
+                    }
+                    break;
+                case ';':
+                    out.append(c);
+                    if (i > 0 && !isRegexSpace(text.charAt(i - 1))) {
+                        appendSpace();
+                    }
+                    break;
+                case ' ':
+                case '\t':
+                case '\u000B':
+                case '\f':
+                case '\r':
+                    appendSpace();
+                    break;
+                default:
+                    out.append(c);
+                    break;
+            }
+            i++;
+        }
+    }
+
+    /**
+     * Replaces every string and char literal with __STRn__ in masked; an
+     * unterminated literal runs to the end of the snippet.
+     */
+    private void mask(String snippet) {
+        masked.setLength(0);
+        literalCount = 0;
+        int start = -1;
+        boolean inString = false;
+        boolean inChar = false;
+        boolean escaped = false;
+        for (int i = 0; i < snippet.length(); i++) {
+            char c = snippet.charAt(i);
+            if (inString || inChar) {
+                if (escaped) {
+                    escaped = false;
+                    continue;
+                }
+                if (c == '\\') {
+                    escaped = true;
+                } else if (inString && c == '"') {
+                    inString = false;
+                } else if (inChar && c == '\'') {
+                    inChar = false;
+                }
+                if (!inString && !inChar) {
+                    addLiteral(start, i + 1);
+                }
+                continue;
+            }
+            if (c == '"' || c == '\'') {
+                inString = c == '"';
+                inChar = c == '\'';
+                start = i;
+                continue;
+            }
+            masked.append(c);
+        }
+        if (inString || inChar) {
+            addLiteral(start, snippet.length());
+        }
+    }
+
+    private void addLiteral(int start, int end) {
+        if (4 * literalCount == literals.length) {
+            literals = Arrays.copyOf(literals, 2 * literals.length);
+        }
+        int placeholderStart = masked.length();
+        masked.append("__STR").append(literalCount).append("__");
+        literals[4 * literalCount] = start;
+        literals[4 * literalCount + 1] = end;
+        literals[4 * literalCount + 2] = placeholderStart;
+        literals[4 * literalCount + 3] = masked.length() - placeholderStart;
+        literalCount++;
+    }
+
+    /**
+     * Appends the keywords glued together at start, each followed by a space,
+     * and returns the index after the last one, or start when none applies.
+     */
+    private int keywordChain(String text, int start) {
+        int position = start;
+        int previous = -1;
+        while (true) {
+            int keyword = keywordAt(text, position);
+            if (keyword <= previous) {
+                return position;
+            }
+            int end = position + KEYWORDS[keyword].length();
+            if (end >= text.length() || !isIdentifierLetter(text.charAt(end))) {
+                return position;
+            }
+            out.append(KEYWORDS[keyword]).append(' ');
+            position = end;
+            previous = keyword;
+        }
+    }
+
+    /** Index of the keyword starting at position, or -1; no keyword is a prefix of another. */
+    private static int keywordAt(String text, int position) {
+        for (int k = 0; k < KEYWORDS.length; k++) {
+            if (text.startsWith(KEYWORDS[k], position)) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    /** Whether java.util.regex sees a word character before index, i.e. no \b before a word character. */
+    private static boolean wordBefore(String text, int index) {
+        if (index == 0) {
+            return false;
+        }
+        int ch = Character.codePointBefore(text, index);
+        if (ch < 128) {
+            return ch == '_' || (ch >= '0' && ch <= '9') || isAsciiLetter(ch);
+        }
+        return Character.getType(ch) == Character.NON_SPACING_MARK && hasBaseCharacter(text, index - 1);
+    }
+
+    /** Same walk as java.util.regex: a non-spacing mark counts as a word character after a letter or digit. */
+    private static boolean hasBaseCharacter(String text, int index) {
+        for (int x = index; x >= 0; x--) {
+            int ch = Character.codePointAt(text, x);
+            if (Character.isLetterOrDigit(ch)) {
+                return true;
+            }
+            if (Character.getType(ch) != Character.NON_SPACING_MARK) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /** Collapses into a preceding space; every space in the output belongs to a collapsible run. */
+    private void appendSpace() {
+        if (out.length() == 0 || out.charAt(out.length() - 1) != ' ') {
+            out.append(' ');
+        }
+    }
+
+    private static boolean isIdentifierLetter(char c) {
+        return c == '_' || isAsciiLetter(c);
+    }
+
+    private static boolean isAsciiLetter(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isRegexSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+}
@@ -0,0 +1,109 @@
+package com.kitcode;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Base for the text graph writers: collects output in a reusable char buffer
+ * and encodes it to UTF-8 in large blocks, so subclasses can emit numbers and
+ * escaped text without building intermediate Strings. Instances are not
+ * thread-safe: each is used by one borrower at a time and handed back through
+ * ASTGenerator's writer pool, which keeps its buffers for the next graph.
+ */
+abstract class Utf8TextWriter {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final char[] chars = new char[BUFFER_SIZE];
+    private final CharBuffer pending = CharBuffer.wrap(chars);
+    private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE * 3);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    private OutputStream out;
+    private int position;
+
+    final void begin(OutputStream out) {
+        this.out = out;
+        this.position = 0;
+        encoder.reset();
+    }
+
+    /** Encodes everything still buffered and detaches from the stream. */
+    final void end() throws IOException {
+        try {
+            flush(true);
+        } finally {
+            this.out = null;
+        }
+    }
+
+    final void append(char c) throws IOException {
+        if (position == chars.length) {
+            flush(false);
+        }
+        chars[position++] = c;
+    }
+
+    final void append(String s) throws IOException {
+        int offset = 0;
+        int length = s.length();
+        while (offset < length) {
+            if (position == chars.length) {
+                flush(false);
+            }
+            int count = Math.min(length - offset, chars.length - position);
+            s.getChars(offset, offset + count, chars, position);
+            position += count;
+            offset += count;
+        }
+    }
+
+    final void appendInt(int value) throws IOException {
+        long remaining = value;
+        if (remaining < 0) {
+            append('-');
+            remaining = -remaining;
+        }
+        long divisor = 1;
+        while (divisor <= remaining / 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            append((char) ('0' + (remaining / divisor) % 10));
+        }
+    }
+
+    private void flush(boolean endOfInput) throws IOException {
+        pending.clear().limit(position);
+        CoderResult result;
+        do {
+            result = encoder.encode(pending, bytes, endOfInput);
+            drain();
+        } while (result.isOverflow());
+        if (endOfInput) {
+            while (encoder.flush(bytes).isOverflow()) {
+                drain();
+            }
+            drain();
+        }
+        // A high surrogate at the end of the buffer waits for its pair.
+        int leftover = pending.remaining();
+        System.arraycopy(chars, pending.position(), chars, 0, leftover);
+        position = leftover;
+    }
+
+    private void drain() throws IOException {
+        if (bytes.position() > 0) {
+            out.write(bytes.array(), 0, bytes.position());
+            bytes.clear();
+        }
+    }
+}
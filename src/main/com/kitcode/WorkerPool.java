@@ -0,0 +1,301 @@
+package com.kitcode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Supervisor side of isolated parsing: a fixed number of child JVMs running
+ * {@link GraphWorker}, each rendering one file at a time over its stdin and
+ * stdout. A StackOverflowError or OutOfMemoryError on a pathological input
+ * then only takes down one child. The child is discarded and the file is
+ * tried once more on a fresh one, so a child that died for other reasons
+ * does not get the file blamed. If it crashes again, the request comes back
+ * as {@link Status#CRASHED}. The other workers keep their throughput.
+ *
+ * <p>Messages are length-prefixed: a request is the source name and the
+ * source, a reply is a status byte, the error messages, the rendered graph,
+ * the token count and the nanoseconds spent in each CPU stage. A new child
+ * first sends {@link #READY} once it has loaded the parser, and the timeout
+ * only starts counting after that, so a slow JVM start is not blamed on the
+ * first file.
+ */
+final class WorkerPool implements Closeable {
+
+    enum Status {
+        OK, SYNTAX_ERROR, FAILED, CRASHED
+    }
+
+    /** Outcome of one file; graph is empty unless the status is OK. */
+    static final class Result {
+
+        final Status status;
+        final List<String> messages;
+        final byte[] graph;
+        final int tokens;
+        final long[] stageNanos;
+
+        Result(Status status, List<String> messages, byte[] graph, int tokens, long[] stageNanos) {
+            this.status = status;
+            this.messages = messages;
+            this.graph = graph;
+            this.tokens = tokens;
+            this.stageNanos = stageNanos;
+        }
+    }
+
+    static final int READY = 0x52;
+
+    private static final int EXIT_TIMEOUT_SECONDS = 5;
+    /** Exit code of a JVM stopped by -XX:+ExitOnOutOfMemoryError. */
+    private static final int OUT_OF_MEMORY_EXIT_CODE = 3;
+
+    private final List<String> command;
+    private final long timeoutMillis;
+    private final Semaphore slots;
+    private final BlockingQueue<Worker> idle = new LinkedBlockingQueue<Worker>();
+    private final AtomicInteger restarts = new AtomicInteger();
+    private final ScheduledExecutorService watchdog;
+
+    /**
+     * @param jvmOptions    options for the child JVMs, such as -Xss or -Xmx
+     * @param workerArgs    command line of {@link GraphWorker}
+     * @param timeoutMillis time after which a child working on one file is killed, 0 for none
+     */
+    WorkerPool(int size, List<String> jvmOptions, List<String> workerArgs, long timeoutMillis) {
+        this.command = new ArrayList<String>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-XX:+ExitOnOutOfMemoryError");
+        command.addAll(jvmOptions);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(GraphWorker.class.getName());
+        command.addAll(workerArgs);
+        this.timeoutMillis = timeoutMillis;
+        this.slots = new Semaphore(size);
+        this.watchdog = timeoutMillis > 0 ? Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "worker-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    /**
+     * Renders one file in a child process. A child that dies, times out or
+     * answers garbage on two attempts, the second on a fresh child, yields
+     * {@link Status#CRASHED}; only failing to start a child at all is an
+     * IOException.
+     */
+    Result process(String name, String source) throws IOException {
+        try {
+            slots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a worker");
+        }
+        try {
+            Result result = attempt(name, source, idleWorker());
+            if (result.status == Status.CRASHED) {
+                result = attempt(name, source, null);
+            }
+            return result;
+        } finally {
+            slots.release();
+        }
+    }
+
+    /** Runs one request on the given worker, or on a new one when null. */
+    private Result attempt(String name, String source, Worker worker) throws IOException {
+        if (worker == null) {
+            worker = new Worker(new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.DISCARD).start());
+        }
+        boolean healthy = false;
+        try {
+            Result result = worker.call(name, source);
+            healthy = result.status != Status.CRASHED;
+            return result;
+        } finally {
+            if (healthy) {
+                idle.add(worker);
+            } else {
+                worker.process.destroyForcibly();
+                restarts.incrementAndGet();
+            }
+        }
+    }
+
+    /** An idle child that is still running, or null; children that died while idle are dropped. */
+    private Worker idleWorker() {
+        Worker worker;
+        while ((worker = idle.poll()) != null) {
+            if (worker.process.isAlive()) {
+                return worker;
+            }
+            restarts.incrementAndGet();
+        }
+        return null;
+    }
+
+    /** Number of children discarded after a crash or found dead while idle. */
+    int restarts() {
+        return restarts.get();
+    }
+
+    /** Closes the pipes of the idle children, which makes them exit. */
+    @Override
+    public void close() throws IOException {
+        if (watchdog != null) {
+            watchdog.shutdownNow();
+        }
+        Worker worker;
+        while ((worker = idle.poll()) != null) {
+            try {
+                worker.out.close();
+                if (!worker.process.waitFor(EXIT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    worker.process.destroyForcibly();
+                }
+            } catch (IOException e) {
+                worker.process.destroyForcibly();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                worker.process.destroyForcibly();
+            }
+        }
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        out.writeInt(value.length);
+        out.write(value);
+    }
+
+    static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Corrupt message length " + length);
+        }
+        byte[] value = new byte[length];
+        in.readFully(value);
+        return value;
+    }
+
+    private final class Worker {
+
+        final Process process;
+        final DataInputStream in;
+        final DataOutputStream out;
+        volatile boolean timedOut;
+        boolean ready;
+
+        Worker(Process process) {
+            this.process = process;
+            this.in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+        }
+
+        Result call(String name, String source) {
+            if (!ready) {
+                try {
+                    if (in.readUnsignedByte() != READY) {
+                        throw new IOException("Unexpected worker output");
+                    }
+                    ready = true;
+                } catch (IOException e) {
+                    return new Result(Status.CRASHED, List.of(crashReason()), new byte[0], 0, new long[0]);
+                }
+            }
+            ScheduledFuture<?> kill = watchdog == null ? null : watchdog.schedule(() -> {
+                timedOut = true;
+                process.destroyForcibly();
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+            Result result;
+            try {
+                writeString(out, name);
+                writeString(out, source);
+                out.flush();
+                result = readResult();
+            } catch (IOException e) {
+                result = null;
+            }
+            if (kill != null && !kill.cancel(false)) {
+                awaitWatchdog(kill);
+            }
+            // A timeout that fired just as the reply arrived has still
+            // destroyed the process, so timedOut decides over the reply.
+            if (result == null || timedOut) {
+                return new Result(Status.CRASHED, List.of(crashReason()), new byte[0], 0, new long[0]);
+            }
+            return result;
+        }
+
+        /** Waits for a kill that has already started, so timedOut is settled. */
+        private void awaitWatchdog(ScheduledFuture<?> kill) {
+            try {
+                kill.get();
+            } catch (ExecutionException e) {
+                // The kill only sets a flag and destroys the process.
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private Result readResult() throws IOException {
+            int code = in.readUnsignedByte();
+            if (code >= Status.values().length) {
+                throw new IOException("Unexpected worker output");
+            }
+            Status status = Status.values()[code];
+            int count = in.readInt();
+            List<String> messages = new ArrayList<String>(Math.max(0, Math.min(count, 64)));
+            for (int i = 0; i < count; i++) {
+                messages.add(readString(in));
+            }
+            byte[] graph = readBytes(in);
+            int tokens = in.readInt();
+            long[] stageNanos = new long[RunMetrics.Stage.values().length];
+            for (int i = 0; i < stageNanos.length; i++) {
+                stageNanos[i] = in.readLong();
+            }
+            return new Result(status, messages, graph, tokens, stageNanos);
+        }
+
+        private String crashReason() {
+            if (timedOut) {
+                return "worker timed out after " + timeoutMillis / 1000.0 + "s";
+            }
+            try {
+                if (process.waitFor(EXIT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    int code = process.exitValue();
+                    return "worker exited with code " + code + (code == OUT_OF_MEMORY_EXIT_CODE ? " (out of memory)" : "");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "worker stopped responding";
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.kitcode;
+
+import antlr.Java8Parser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Round-trips parsed sources through BinaryAstWriter and BinaryAstReader. */
+class BinaryAstReaderTest {
+
+    private static final String SOURCE = "package demo;\n"
+            + "\n"
+            + "public class Sample {\n"
+            + "    private final String name = \"caf\u00e9 \u2603\";\n"
+            + "\n"
+            + "    int twice(int x) {\n"
+            + "        return x * 2;\n"
+            + "    }\n"
+            + "}\n";
+
+    private static final String OTHER = "class Other { void run() { for (;;) { break; } } }\n";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void roundTripsEveryNodeWithContent() throws IOException {
+        NodeTable nodes = parse(SOURCE);
+        BinaryAstReader reader = BinaryAstReader.wrap(ByteBuffer.wrap(write(new BinaryAstWriter(), nodes, "// header", true)));
+
+        assertEquals("// header", reader.header());
+        assertTrue(reader.hasContent());
+        assertSameNodes(nodes, reader, true);
+        reader.reset();
+        assertSameNodes(nodes, reader, true);
+    }
+
+    @Test
+    void roundTripsStructureWithoutContent() throws IOException {
+        NodeTable nodes = parse(SOURCE);
+        BinaryAstReader reader = BinaryAstReader.wrap(ByteBuffer.wrap(write(new BinaryAstWriter(), nodes, null, false)));
+
+        assertNull(reader.header());
+        assertFalse(reader.hasContent());
+        assertSameNodes(nodes, reader, false);
+        reader.reset();
+        assertTrue(reader.next());
+        assertNull(reader.content());
+    }
+
+    @Test
+    void readsMappedFiles() throws IOException {
+        NodeTable nodes = parse(SOURCE);
+        Path file = dir.resolve("Sample.astb");
+        Files.write(file, write(new BinaryAstWriter(), nodes, null, true));
+
+        assertSameNodes(nodes, BinaryAstReader.open(file), true);
+    }
+
+    @Test
+    void reusedWriterMatchesFreshWriter() throws IOException {
+        BinaryAstWriter writer = new BinaryAstWriter();
+        NodeTable first = parse(SOURCE);
+        NodeTable second = parse(OTHER);
+        write(writer, first, null, true);
+
+        assertTrue(Arrays.equals(write(new BinaryAstWriter(), second, null, true), write(writer, second, null, true)));
+    }
+
+    @Test
+    void rejectsOtherFormats() {
+        byte[] data = "digraph AST {\n}\n".getBytes();
+        assertThrows(IOException.class, () -> BinaryAstReader.wrap(ByteBuffer.wrap(data)));
+    }
+
+    private static void assertSameNodes(NodeTable nodes, BinaryAstReader reader, boolean content) {
+        assertEquals(nodes.size(), reader.nodeCount(), "node count");
+        for (int i = 0; i < nodes.size(); i++) {
+            assertTrue(reader.next());
+            assertEquals(i, reader.index(), "index");
+            assertEquals(nodes.parent(i), reader.parent(), "parent of " + i);
+            assertEquals(nodes.rule(i), reader.ruleIndex(), "rule of " + i);
+            assertEquals(Java8Parser.ruleNames[nodes.rule(i)], reader.ruleName());
+            assertEquals(nodes.startLine(i), reader.startLine(), "start line of " + i);
+            assertEquals(nodes.endLine(i), reader.endLine(), "end line of " + i);
+            if (content) {
+                assertEquals(nodes.startOffset(i), reader.startOffset(), "start offset of " + i);
+                assertEquals(nodes.endOffset(i), reader.endOffset(), "end offset of " + i);
+                assertEquals(nodes.source().substring(nodes.startOffset(i), nodes.endOffset(i)), reader.content());
+            }
+        }
+        assertFalse(reader.next());
+    }
+
+    private static NodeTable parse(String source) {
+        NodeTable nodes = ASTGenerator.parseNodes(source, null, new ArrayList<String>());
+        assertNotNull(nodes);
+        return nodes;
+    }
+
+    private static byte[] write(BinaryAstWriter writer, NodeTable nodes, String header, boolean includeContent) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.write(out, nodes, header, includeContent);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,94 @@
+package com.kitcode;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Batching of DirectoryWatcher: quiet gaps and the maximum batch latency. */
+class DirectoryWatcherTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void deliversBatchAfterQuietGap() throws Exception {
+        try (DirectoryWatcher watcher = new DirectoryWatcher(dir, ".java", 200, 10_000)) {
+            Recorder recorder = start(watcher);
+            Path file = dir.resolve("A.java");
+            Files.writeString(file, "class A {}");
+            Files.writeString(dir.resolve("notes.txt"), "ignored");
+
+            assertEquals("changed " + List.of(file), recorder.next(5));
+
+            Files.delete(file);
+            assertEquals("deleted " + List.of(file), recorder.next(5));
+        }
+    }
+
+    @Test
+    void deliversWhileEventsKeepArriving() throws Exception {
+        Path file = dir.resolve("Busy.java");
+        try (DirectoryWatcher watcher = new DirectoryWatcher(dir, ".java", 300, 1_000)) {
+            Recorder recorder = start(watcher);
+            // Writes every 50ms never leave the 300ms quiet gap, so only the
+            // latency cap can hand out a batch while they go on.
+            long start = System.nanoTime();
+            String batch = null;
+            for (int i = 0; batch == null && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10); i++) {
+                Files.writeString(file, "class Busy { int v = " + i + "; }");
+                batch = recorder.batches.poll(50, TimeUnit.MILLISECONDS);
+            }
+            assertNotNull(batch, "no batch while events kept arriving");
+            assertEquals("changed " + List.of(file), batch);
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5), "batch took longer than the latency cap allows");
+        }
+    }
+
+    private static Recorder start(DirectoryWatcher watcher) {
+        Recorder recorder = new Recorder();
+        Thread thread = new Thread(() -> {
+            try {
+                watcher.run(recorder);
+            } catch (IOException e) {
+                recorder.batches.add("failed " + e);
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return recorder;
+    }
+
+    private static final class Recorder implements DirectoryWatcher.Listener {
+        final BlockingQueue<String> batches = new LinkedBlockingQueue<String>();
+
+        @Override
+        public void changed(List<Path> files) {
+            batches.add("changed " + files);
+        }
+
+        @Override
+        public void deleted(List<Path> files) {
+            batches.add("deleted " + files);
+        }
+
+        @Override
+        public void rescan() {
+            batches.add("rescan");
+        }
+
+        String next(int seconds) throws InterruptedException {
+            return batches.poll(seconds, TimeUnit.SECONDS);
+        }
+    }
+}
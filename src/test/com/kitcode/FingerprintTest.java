@@ -0,0 +1,46 @@
+package com.kitcode;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/** Fingerprint against published XXH64 (seed 0) test vectors. */
+class FingerprintTest {
+
+    @Test
+    void matchesReferenceVectors() {
+        assertEquals(0xEF46DB3751D8E999L, of(""));
+        assertEquals(0xD24EC4F1A98C6E5BL, of("a"));
+        assertEquals(0x44BC2CF5AD770999L, of("abc"));
+        assertEquals(0xFBCEA83C8A378BF1L, of("Nobody inspects the spammish repetition"));
+        assertEquals(0x0B242D361FDA71BCL, of("The quick brown fox jumps over the lazy dog"));
+    }
+
+    @Test
+    void hashesSlicesLikeCopies() {
+        byte[] data = new byte[300];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31 + 7);
+        }
+        for (int offset = 0; offset < 9; offset++) {
+            for (int length = 0; length <= 100; length++) {
+                assertEquals(Fingerprint.of(Arrays.copyOfRange(data, offset, offset + length)),
+                        Fingerprint.of(data, offset, length), "offset " + offset + " length " + length);
+            }
+        }
+    }
+
+    @Test
+    void hexRoundTrips() {
+        assertEquals("0b242d361fda71bc", Fingerprint.toHex(0x0B242D361FDA71BCL));
+        assertEquals("0000000000000000", Fingerprint.toHex(0));
+        assertEquals(0xEF46DB3751D8E999L, Fingerprint.fromHex(Fingerprint.toHex(0xEF46DB3751D8E999L)));
+    }
+
+    private static long of(String text) {
+        return Fingerprint.of(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
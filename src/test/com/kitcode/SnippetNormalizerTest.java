@@ -0,0 +1,170 @@
+package com.kitcode;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks SnippetNormalizer against the replaceAll chain and string-replace
+ * unmasking it replaced, on hand-picked and generated snippets. Snippets
+ * that already contain __STRn__ text are left out of the comparison: the
+ * old unmasking rewrote those too, which was the bug fixed by masking by
+ * position.
+ */
+class SnippetNormalizerTest {
+
+    private static final String[] FRAGMENTS = {
+            "public", "protected", "private", "static", "final", "abstract", "native", "strictfp", "synchronized",
+            "int", "void", "x", "_y", "Foo", "9", "(", ")", "{", "}", ";", " ", "  ", "\t", "\n", "\r", "\f",
+            "\u000B", "\"s\"", "\"a\\\"b\"", "'c'", "'\\''", "\"", "'", "\\", "=", ".", ",", "\u00e9", "\u0301"
+    };
+
+    private final SnippetNormalizer normalizer = new SnippetNormalizer();
+
+    @Test
+    void spacesAroundBracesParenthesesAndSemicolons() {
+        assertEquals("if (a){b (); } else {c; }", normalizer.normalizeSnippet("if(a){b();}else{c;}", false));
+        assertEquals("f (x) y", normalizer.normalizeSnippet("f(x)y", false));
+        assertEquals("a ;b", normalizer.normalizeSnippet("a ;b", false));
+    }
+
+    @Test
+    void collapsesHorizontalWhitespaceButKeepsNewlines() {
+        assertEquals("int x = 1; \n int y; ", normalizer.normalizeSnippet("int \t x =\f1;\r\n  int y;", false));
+    }
+
+    @Test
+    void splitsGluedKeywordsOnlyWhenAggressive() {
+        assertEquals("publicstaticfinalint x; ", normalizer.normalizeSnippet("publicstaticfinalint x;", false));
+        assertEquals("public static final int x; ", normalizer.normalizeSnippet("publicstaticfinalint x;", true));
+        assertEquals("static publicvoid f", normalizer.normalizeSnippet("staticpublicvoid f", true));
+    }
+
+    @Test
+    void keepsLiteralContents() {
+        assertEquals("s = \"a(b){c;d}\"; ", normalizer.normalizeSnippet("s = \"a(b){c;d}\";", true));
+        assertEquals("c = ';'; t = \"\\\"x;\"; ", normalizer.normalizeSnippet("c = ';'; t = \"\\\"x;\";", false));
+        assertEquals("s = \"open", normalizer.normalizeSnippet("s = \"open", false));
+    }
+
+    @Test
+    void leavesPlaceholderLookalikesAlone() {
+        assertEquals("String s = \"a\"; String t = __STR0__; ",
+                normalizer.normalizeSnippet("String s = \"a\"; String t = __STR0__;", false));
+    }
+
+    @Test
+    void matchesReplaceAllChainOnSamples() {
+        String[] samples = {
+                "", ";", " ;", "a;", "(;)", "x(y){z}w", "}a)b", "if(x){return;}",
+                "publicstatic void main(String[] args){System.out.println(\"hi;\");}",
+                "privatefinalsynchronizedvoid f()", "staticpublicint x", "nativepublic",
+                "foo_public(int a)", "x.publicstatic", "\u00e9public(", "e\u0301public(", "\u00e9publicstatic x",
+                "'a'+'\\n';c", "\"unterminated(", "a\t\u000B\f\r b\n c", "synchronized(lock){}"
+        };
+        for (String sample : samples) {
+            assertSame(sample, false);
+            assertSame(sample, true);
+        }
+    }
+
+    @Test
+    void matchesReplaceAllChainOnGeneratedSnippets() {
+        Random random = new Random(45);
+        for (int n = 0; n < 20000; n++) {
+            StringBuilder snippet = new StringBuilder();
+            int parts = random.nextInt(12);
+            for (int p = 0; p < parts; p++) {
+                snippet.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+            }
+            String sample = snippet.toString();
+            if (sample.contains("__STR")) {
+                continue;
+            }
+            assertSame(sample, random.nextBoolean());
+        }
+    }
+
+    private void assertSame(String snippet, boolean aggressive) {
+        assertEquals(reference(snippet, aggressive), normalizer.normalizeSnippet(snippet, aggressive),
+                () -> "snippet " + escape(snippet) + (aggressive ? " (aggressive)" : ""));
+    }
+
+    /** Masking, replaceAll chain and unmasking as JsonDotGenerator did them before the single pass. */
+    private static String reference(String snippet, boolean aggressive) {
+        List<String> literals = new ArrayList<String>();
+        StringBuilder masked = new StringBuilder();
+        StringBuilder current = new StringBuilder();
+        boolean inString = false;
+        boolean inChar = false;
+        boolean escaped = false;
+        for (int i = 0; i < snippet.length(); i++) {
+            char c = snippet.charAt(i);
+            if (inString || inChar) {
+                current.append(c);
+                if (escaped) {
+                    escaped = false;
+                    continue;
+                }
+                if (c == '\\') {
+                    escaped = true;
+                } else if (inString && c == '"') {
+                    inString = false;
+                } else if (inChar && c == '\'') {
+                    inChar = false;
+                }
+                if (!inString && !inChar) {
+                    masked.append("__STR").append(literals.size()).append("__");
+                    literals.add(current.toString());
+                    current.setLength(0);
+                }
+                continue;
+            }
+            if (c == '"' || c == '\'') {
+                inString = c == '"';
+                inChar = c == '\'';
+                current.append(c);
+                continue;
+            }
+            masked.append(c);
+        }
+        if (current.length() > 0) {
+            masked.append("__STR").append(literals.size()).append("__");
+            literals.add(current.toString());
+        }
+
+        String normalized = masked.toString();
+        if (aggressive) {
+            for (String keyword : SnippetNormalizer.KEYWORDS) {
+                normalized = normalized.replaceAll("\\b" + keyword + "(?=[A-Za-z_])", keyword + " ");
+            }
+        }
+        normalized = normalized.replaceAll("(?<=[a-zA-Z_])\\(", " (");
+        normalized = normalized.replaceAll("\\)(?=[A-Za-z_])", ") ");
+        normalized = normalized.replaceAll("(?<=[a-zA-Z_])\\{", " {");
+        normalized = normalized.replaceAll("\\}(?=[A-Za-z_])", "} ");
+        normalized = normalized.replaceAll("(?<=[^\\s])([;])", "$1 ");
+        normalized = normalized.replaceAll("[\\t\\x0B\\f\\r ]+", " ");
+
+        for (int i = 0; i < literals.size(); i++) {
+            normalized = normalized.replace("__STR" + i + "__", literals.get(i));
+        }
+        return normalized;
+    }
+
+    private static String escape(String text) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : text.toCharArray()) {
+            if (c < 0x20 || c > 0x7E) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}